@@ -0,0 +1,68 @@
+package commoble.clockout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+
+/**
+ * Generates ownership data for the benchmarks, deterministically so runs are comparable
+ */
+public class BenchmarkData
+{
+	public final List<UUID> players = new ArrayList<>();
+	public final List<RegistryKey<World>> dimensions = new ArrayList<>();
+	// every owned position, in the same order as owners and ownerDimensions
+	public final List<BlockPos> positions = new ArrayList<>();
+	public final List<UUID> owners = new ArrayList<>();
+	public final List<RegistryKey<World>> ownerDimensions = new ArrayList<>();
+	
+	public BenchmarkData(int playerCount, int blocksPerPlayer, int dimensionCount)
+	{
+		Bootstrap.register();
+		Random random = new Random(0L);
+		for (int i=0; i<dimensionCount; i++)
+		{
+			this.dimensions.add(RegistryKey.getOrCreateKey(Registry.WORLD_KEY, new ResourceLocation(Clockout.MODID, "benchmark_" + i)));
+		}
+		for (int player=0; player<playerCount; player++)
+		{
+			UUID playerID = new UUID(random.nextLong(), random.nextLong());
+			this.players.add(playerID);
+			for (int block=0; block<blocksPerPlayer; block++)
+			{
+				this.owners.add(playerID);
+				this.ownerDimensions.add(this.dimensions.get(block % dimensionCount));
+				this.positions.add(randomPos(random));
+			}
+		}
+	}
+	
+	public static BlockPos randomPos(Random random)
+	{
+		return new BlockPos(random.nextInt(60000) - 30000, random.nextInt(256), random.nextInt(60000) - 30000);
+	}
+	
+	public OwnedClockoutBlocksData createData()
+	{
+		return this.createData(OwnershipStorageEngines.HASH_NAME);
+	}
+	
+	public OwnedClockoutBlocksData createData(String storageEngine)
+	{
+		OwnedClockoutBlocksData data = new OwnedClockoutBlocksData();
+		data.setStorageEngine(storageEngine);
+		for (int i=0; i<this.positions.size(); i++)
+		{
+			data.putBlock(this.owners.get(i), this.ownerDimensions.get(i), this.positions.get(i));
+		}
+		return data;
+	}
+}
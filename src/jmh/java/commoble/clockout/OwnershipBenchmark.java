@@ -0,0 +1,199 @@
+package commoble.clockout;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import it.unimi.dsi.fastutil.longs.Long2BooleanLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2BooleanMap;
+import it.unimi.dsi.fastutil.longs.Long2BooleanOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * Benchmarks the in-memory operations of the ownership data: placing, removing, and looking up blocks,
+ * and the login/logout fan-out through the power change scheduler into a stubbed world.
+ * Every benchmark runs once per storage engine so that the engines can be compared head to head.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OwnershipBenchmark
+{
+	// owns no blocks except during transferPlayerBlocks
+	private static final UUID TRANSFER_OWNER = new UUID(0L, 1L);
+	
+	@Param({OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public String engine;
+	
+	@Param({"10", "1000"})
+	public int playerCount;
+	
+	@Param({"10", "1000"})
+	public int blocksPerPlayer;
+	
+	@Param({"1", "3"})
+	public int dimensionCount;
+	
+	private BenchmarkData input;
+	private OwnedClockoutBlocksData data;
+	private Random random;
+	// stands in for the world during fan-out, maps packed positions to their powered state
+	private Long2BooleanMap stubWorld;
+	// one dimension's blocks on their own engine, for reading and writing
+	private OwnershipStorage storage;
+	private CompoundNBT storageNBT;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		this.input = new BenchmarkData(this.playerCount, this.blocksPerPlayer, this.dimensionCount);
+		this.data = this.input.createData(this.engine);
+		this.random = new Random(1L);
+		this.stubWorld = new Long2BooleanOpenHashMap(this.input.positions.size());
+		this.input.positions.forEach(pos -> this.stubWorld.put(pos.toLong(), false));
+		
+		RegistryKey<World> firstDimension = this.input.dimensions.get(0);
+		this.storage = OwnershipStorageEngines.get(this.engine).get();
+		for (int i=0; i<this.input.positions.size(); i++)
+		{
+			if (this.input.ownerDimensions.get(i) == firstDimension)
+			{
+				this.storage.put(this.input.owners.get(i), this.input.positions.get(i).toLong());
+			}
+		}
+		this.storageNBT = this.storage.write(new CompoundNBT());
+	}
+	
+	private int randomIndex()
+	{
+		return this.random.nextInt(this.input.positions.size());
+	}
+	
+	@Benchmark
+	public void putBlock()
+	{
+		// place a new block and remove it again so the size of the data stays the same
+		UUID playerID = this.input.players.get(this.random.nextInt(this.playerCount));
+		RegistryKey<World> dimID = this.input.dimensions.get(this.random.nextInt(this.dimensionCount));
+		BlockPos pos = BenchmarkData.randomPos(this.random);
+		this.data.putBlock(playerID, dimID, pos);
+		this.data.removeBlock(dimID, pos);
+	}
+	
+	@Benchmark
+	public void removeBlock()
+	{
+		// remove an existing block and put it back so the size of the data stays the same
+		int index = this.randomIndex();
+		RegistryKey<World> dimID = this.input.ownerDimensions.get(index);
+		BlockPos pos = this.input.positions.get(index);
+		this.data.removeBlock(dimID, pos);
+		this.data.putBlock(this.input.owners.get(index), dimID, pos);
+	}
+	
+	@Benchmark
+	public void removeAndPutPlayerBlocks()
+	{
+		// clear all of a player's blocks one at a time and put them back, as a world editor going through the block callbacks would
+		int start = this.random.nextInt(this.playerCount) * this.blocksPerPlayer;
+		int end = start + this.blocksPerPlayer;
+		for (int i=start; i<end; i++)
+		{
+			this.data.removeBlock(this.input.ownerDimensions.get(i), this.input.positions.get(i));
+		}
+		for (int i=start; i<end; i++)
+		{
+			this.data.putBlock(this.input.owners.get(i), this.input.ownerDimensions.get(i), this.input.positions.get(i));
+		}
+	}
+	
+	@Benchmark
+	public void removeAndPutPlayerBlocksBatched()
+	{
+		// as above, with a batch for the removals and one for the puts
+		int start = this.random.nextInt(this.playerCount) * this.blocksPerPlayer;
+		int end = start + this.blocksPerPlayer;
+		OwnershipBatch removals = new OwnershipBatch();
+		OwnershipBatch puts = new OwnershipBatch();
+		for (int i=start; i<end; i++)
+		{
+			removals.remove(this.input.ownerDimensions.get(i), this.input.positions.get(i));
+			puts.put(this.input.owners.get(i), this.input.ownerDimensions.get(i), this.input.positions.get(i));
+		}
+		this.data.apply(removals);
+		this.data.apply(puts);
+	}
+	
+	@Benchmark
+	public void transferPlayerBlocks()
+	{
+		// give all of a player's blocks to an owner with no blocks and back, e.g. a new group
+		UUID playerID = this.input.players.get(this.random.nextInt(this.playerCount));
+		this.data.apply(new OwnershipBatch().transferAll(playerID, TRANSFER_OWNER));
+		this.data.apply(new OwnershipBatch().transferAll(TRANSFER_OWNER, playerID));
+	}
+	
+	@Benchmark
+	public UUID getBlockOwner()
+	{
+		int index = this.randomIndex();
+		return this.data.getBlockOwner(this.input.ownerDimensions.get(index), this.input.positions.get(index).toLong());
+	}
+	
+	@Benchmark
+	public void loginFanOut(Blackhole blackhole)
+	{
+		UUID playerID = this.input.players.get(this.random.nextInt(this.playerCount));
+		this.data.onPlayerLoginStateChange(playerID, true);
+		blackhole.consume(this.data.getScheduler().drain(0, 0, this::setStubPowered));
+		this.data.onPlayerLoginStateChange(playerID, false);
+		blackhole.consume(this.data.getScheduler().drain(0, 0, this::setStubPowered));
+	}
+	
+	@Benchmark
+	public CompoundNBT writeDimension()
+	{
+		return this.storage.write(new CompoundNBT());
+	}
+	
+	@Benchmark
+	public OwnershipStorage readDimension()
+	{
+		OwnershipStorage storage = OwnershipStorageEngines.get(this.engine).get();
+		storage.read(this.storageNBT);
+		return storage;
+	}
+	
+	private void setStubPowered(RegistryKey<World> dimID, Long2BooleanLinkedOpenHashMap positions)
+	{
+		for (Long2BooleanMap.Entry entry : positions.long2BooleanEntrySet())
+		{
+			long packedPos = entry.getLongKey();
+			boolean shouldBePoweredNow = entry.getBooleanValue();
+			if (this.stubWorld.get(packedPos) != shouldBePoweredNow)
+			{
+				this.stubWorld.put(packedPos, shouldBePoweredNow);
+			}
+		}
+	}
+}
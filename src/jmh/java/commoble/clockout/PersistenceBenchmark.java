@@ -0,0 +1,151 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mojang.datafixers.util.Pair;
+import com.mojang.serialization.Codec;
+
+import commoble.clockout.util.CodecHelper;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.nbt.NBTDynamicOps;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.UUIDCodec;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * Benchmarks reading and writing the ownership data, in the compact format and through the legacy player map codec,
+ * as well as the generic codecs from CodecHelper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistenceBenchmark
+{
+	public static final Codec<Set<BlockPos>> BLOCKPOS_SET_CODEC = CodecHelper.makeSetCodec(BlockPos.CODEC);
+	public static final Codec<Map<UUID, Integer>> ENTRY_LIST_CODEC = CodecHelper.makeEntryListCodec(UUIDCodec.CODEC, Codec.INT);
+	
+	@Param({"10", "1000"})
+	public int playerCount;
+	
+	@Param({"10", "1000"})
+	public int blocksPerPlayer;
+	
+	@Param({"1", "3"})
+	public int dimensionCount;
+	
+	private OwnedClockoutBlocksData data;
+	private CompoundNBT compactNBT;
+	private INBT legacyNBT;
+	private Map<UUID, Map<RegistryKey<World>, LongSet>> map;
+	private Set<BlockPos> blockSet;
+	private INBT blockSetNBT;
+	private Map<UUID, Integer> entryMap;
+	private INBT entryListNBT;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		BenchmarkData input = new BenchmarkData(this.playerCount, this.blocksPerPlayer, this.dimensionCount);
+		this.data = input.createData();
+		this.compactNBT = this.data.write(new CompoundNBT());
+		this.map = CompactOwnershipFormat.read(this.compactNBT);
+		this.legacyNBT = OwnedClockoutBlocksData.PLAYER_MAP_CODEC.encodeStart(NBTDynamicOps.INSTANCE, this.map).result().get();
+		
+		List<BlockPos> positions = input.positions.subList(0, this.blocksPerPlayer);
+		this.blockSet = new HashSet<>(positions);
+		this.blockSetNBT = BLOCKPOS_SET_CODEC.encodeStart(NBTDynamicOps.INSTANCE, this.blockSet).result().get();
+		
+		Random random = new Random(2L);
+		this.entryMap = new HashMap<>();
+		input.players.forEach(playerID -> this.entryMap.put(playerID, random.nextInt()));
+		this.entryListNBT = ENTRY_LIST_CODEC.encodeStart(NBTDynamicOps.INSTANCE, this.entryMap).result().get();
+	}
+	
+	@Benchmark
+	public CompoundNBT writeData()
+	{
+		return this.data.write(new CompoundNBT());
+	}
+	
+	@Benchmark
+	public OwnedClockoutBlocksData readData()
+	{
+		OwnedClockoutBlocksData readData = new OwnedClockoutBlocksData();
+		readData.read(this.compactNBT);
+		return readData;
+	}
+	
+	@Benchmark
+	public CompoundNBT writeCompact()
+	{
+		return CompactOwnershipFormat.write(this.map, new CompoundNBT());
+	}
+	
+	@Benchmark
+	public Map<UUID, Map<RegistryKey<World>, LongSet>> readCompact()
+	{
+		return CompactOwnershipFormat.read(this.compactNBT);
+	}
+	
+	@Benchmark
+	public INBT writeLegacyCodec()
+	{
+		return OwnedClockoutBlocksData.PLAYER_MAP_CODEC.encodeStart(NBTDynamicOps.INSTANCE, this.map).result().get();
+	}
+	
+	@Benchmark
+	public Map<UUID, Map<RegistryKey<World>, LongSet>> readLegacyCodec()
+	{
+		return OwnedClockoutBlocksData.PLAYER_MAP_CODEC.decode(NBTDynamicOps.INSTANCE, this.legacyNBT).result().map(Pair::getFirst).get();
+	}
+	
+	@Benchmark
+	public INBT writeSetCodec()
+	{
+		return BLOCKPOS_SET_CODEC.encodeStart(NBTDynamicOps.INSTANCE, this.blockSet).result().get();
+	}
+	
+	@Benchmark
+	public Set<BlockPos> readSetCodec()
+	{
+		return BLOCKPOS_SET_CODEC.decode(NBTDynamicOps.INSTANCE, this.blockSetNBT).result().map(Pair::getFirst).get();
+	}
+	
+	@Benchmark
+	public INBT writeEntryListCodec()
+	{
+		return ENTRY_LIST_CODEC.encodeStart(NBTDynamicOps.INSTANCE, this.entryMap).result().get();
+	}
+	
+	@Benchmark
+	public Map<UUID, Integer> readEntryListCodec()
+	{
+		return ENTRY_LIST_CODEC.decode(NBTDynamicOps.INSTANCE, this.entryListNBT).result().map(Pair::getFirst).get();
+	}
+}
@@ -0,0 +1,57 @@
+package commoble.clockout;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs clockout data saves on a single background thread, in the order they were submitted.
+ */
+public class BackgroundSaver
+{
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Clockout Saver");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	// saves run in submission order, so waiting for the most recent one waits for all of them
+	private static volatile CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
+	
+	public static void submit(Runnable save)
+	{
+		lastSave = CompletableFuture.runAsync(save, EXECUTOR);
+	}
+	
+	/**
+	 * Blocks until every save submitted so far has finished, or until the timeout elapses
+	 * @return true if every save finished in time
+	 */
+	public static boolean awaitPendingSaves(long timeout, TimeUnit unit)
+	{
+		try
+		{
+			lastSave.get(timeout, unit);
+			return true;
+		}
+		catch(TimeoutException e)
+		{
+			Clockout.LOGGER.error("Timed out waiting for clockout data to finish saving");
+			return false;
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		catch(ExecutionException e)
+		{
+			// the save itself logs its own errors
+			return true;
+		}
+	}
+}
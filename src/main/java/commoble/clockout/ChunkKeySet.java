@@ -0,0 +1,51 @@
+package commoble.clockout;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.world.World;
+
+/**
+ * Packed chunk positions (by ChunkPos::asLong) in each dimension, safe to use from any thread.
+ * Lets chunk load events, which aren't guaranteed to be fired on the server thread, ignore chunks we have nothing to do in
+ * without queueing them for the server thread first.
+ */
+public class ChunkKeySet
+{
+	private final Map<RegistryKey<World>, LongSet> chunks = new ConcurrentHashMap<>();
+
+	public boolean contains(RegistryKey<World> dimID, long chunkKey)
+	{
+		LongSet chunkKeys = this.chunks.get(dimID);
+		return chunkKeys != null && chunkKeys.contains(chunkKey);
+	}
+
+	public void add(RegistryKey<World> dimID, long chunkKey)
+	{
+		this.getChunks(dimID).add(chunkKey);
+	}
+
+	public void remove(RegistryKey<World> dimID, long chunkKey)
+	{
+		LongSet chunkKeys = this.chunks.get(dimID);
+		if (chunkKeys != null)
+		{
+			chunkKeys.remove(chunkKey);
+		}
+	}
+
+	// returns the dimension's chunks, which stay in this set for as long as it isn't cleared
+	public LongSet getChunks(RegistryKey<World> dimID)
+	{
+		return this.chunks.computeIfAbsent(dimID, key -> LongSets.synchronize(new LongOpenHashSet()));
+	}
+
+	public void clear()
+	{
+		this.chunks.clear();
+	}
+}
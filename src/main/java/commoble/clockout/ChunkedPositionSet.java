@@ -0,0 +1,147 @@
+package commoble.clockout;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import commoble.clockout.util.SortedLongArraySet;
+import it.unimi.dsi.fastutil.longs.AbstractLongSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongIterators;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Immutable set of packed block positions, kept as a sorted array per chunk.
+ * A copy with a few chunks changed shares every other chunk's array with the set it was made from,
+ * so that snapshots only have to copy the chunks whose blocks changed.
+ */
+public class ChunkedPositionSet extends AbstractLongSet
+{
+	public static final ChunkedPositionSet EMPTY = new ChunkedPositionSet(new Long2ObjectOpenHashMap<>(), 0);
+
+	// packed chunk positions (by ChunkPos::asLong) to the positions in that chunk, never changed once the set is built
+	private final Long2ObjectOpenHashMap<SortedLongArraySet> chunks;
+	private final int size;
+
+	private ChunkedPositionSet(Long2ObjectOpenHashMap<SortedLongArraySet> chunks, int size)
+	{
+		this.chunks = chunks;
+		this.size = size;
+	}
+
+	public static long getChunkKey(long packedPos)
+	{
+		return ChunkPos.asLong(BlockPos.unpackX(packedPos) >> 4, BlockPos.unpackZ(packedPos) >> 4);
+	}
+
+	public static ChunkedPositionSet copyOf(LongCollection positions)
+	{
+		if (positions instanceof ChunkedPositionSet)
+		{
+			return (ChunkedPositionSet)positions;
+		}
+		Long2ObjectMap<LongList> positionsByChunk = new Long2ObjectOpenHashMap<>();
+		LongIterator iterator = positions.iterator();
+		while (iterator.hasNext())
+		{
+			long packedPos = iterator.nextLong();
+			positionsByChunk.computeIfAbsent(getChunkKey(packedPos), key -> new LongArrayList()).add(packedPos);
+		}
+		return new ChunkedPositionSet(wrapChunks(positionsByChunk), positions.size());
+	}
+
+	/**
+	 * Groups positions into the per-chunk arrays this set is made of, for use with withChunks
+	 * @param positionsByChunk Positions by their chunk's key, the lists are only read
+	 */
+	public static Long2ObjectOpenHashMap<SortedLongArraySet> wrapChunks(Long2ObjectMap<LongList> positionsByChunk)
+	{
+		Long2ObjectOpenHashMap<SortedLongArraySet> chunks = new Long2ObjectOpenHashMap<>(positionsByChunk.size());
+		for (Long2ObjectMap.Entry<LongList> entry : positionsByChunk.long2ObjectEntrySet())
+		{
+			chunks.put(entry.getLongKey(), SortedLongArraySet.wrap(entry.getValue().toLongArray()));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Makes a copy of this set with the positions in the given chunks replaced.
+	 * Only the index of chunks is copied, every other chunk's array is shared with this set.
+	 * @param changedChunkKeys The chunks whose positions are replaced
+	 * @param changedChunks The positions in each of the changed chunks, chunks without positions are left out
+	 */
+	public ChunkedPositionSet withChunks(LongCollection changedChunkKeys, Long2ObjectMap<SortedLongArraySet> changedChunks)
+	{
+		Long2ObjectOpenHashMap<SortedLongArraySet> chunks = this.chunks.clone();
+		int size = this.size;
+		LongIterator iterator = changedChunkKeys.iterator();
+		while (iterator.hasNext())
+		{
+			long chunkKey = iterator.nextLong();
+			SortedLongArraySet positions = changedChunks.get(chunkKey);
+			SortedLongArraySet oldPositions = positions == null ? chunks.remove(chunkKey) : chunks.put(chunkKey, positions);
+			size += (positions == null ? 0 : positions.size()) - (oldPositions == null ? 0 : oldPositions.size());
+		}
+		return size == 0 ? EMPTY : new ChunkedPositionSet(chunks, size);
+	}
+
+	@Override
+	public boolean contains(long packedPos)
+	{
+		SortedLongArraySet positions = this.chunks.get(getChunkKey(packedPos));
+		return positions != null && positions.contains(packedPos);
+	}
+
+	@Override
+	public int size()
+	{
+		return this.size;
+	}
+
+	@Override
+	public LongIterator iterator()
+	{
+		Iterator<SortedLongArraySet> chunkIterator = this.chunks.values().iterator();
+		return new LongIterator()
+		{
+			private LongIterator positions = LongIterators.EMPTY_ITERATOR;
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!this.positions.hasNext() && chunkIterator.hasNext())
+				{
+					this.positions = chunkIterator.next().iterator();
+				}
+				return this.positions.hasNext();
+			}
+
+			@Override
+			public long nextLong()
+			{
+				if (!this.hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return this.positions.nextLong();
+			}
+		};
+	}
+
+	@Override
+	public boolean add(long packedPos)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove(long packedPos)
+	{
+		throw new UnsupportedOperationException();
+	}
+}
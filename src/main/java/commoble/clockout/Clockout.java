@@ -1,22 +1,36 @@
 package commoble.clockout;
 
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import commoble.clockout.util.ConfigHelper;
 import commoble.clockout.util.Util;
 import net.minecraft.block.Block;
 import net.minecraft.block.material.Material;
-import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.BlockItem;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemGroup;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.World;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.TickEvent.ServerTickEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent.PlayerLoggedInEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent.PlayerLoggedOutEvent;
+import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.config.ModConfig;
+import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
 
 @Mod(Clockout.MODID)
 public class Clockout
@@ -25,6 +39,8 @@ public class Clockout
 	public static final String CLOCKOUT_BLOCK_NAME = "clockout_block";
 	public static final ResourceLocation CLOCKOUT_BLOCK_RL = getModRL(CLOCKOUT_BLOCK_NAME);
 	
+	public static final Logger LOGGER = LogManager.getLogger();
+	
 	public static Config config;
 		
 	public static ResourceLocation getModRL(String name)
@@ -44,6 +60,12 @@ public class Clockout
 		
 		forge_bus.addListener(Clockout::onPlayerLoggedIn);
 		forge_bus.addListener(Clockout::onPlayerLoggedOut);
+		forge_bus.addListener(Clockout::onChunkLoad);
+		forge_bus.addListener(Clockout::onServerTick);
+		forge_bus.addListener(Clockout::onRegisterCommands);
+		forge_bus.addListener(Clockout::onServerStarted);
+		forge_bus.addListener(Clockout::onServerStopping);
+		forge_bus.addListener(Clockout::onServerStopped);
 	}
 	
 	public static void onRegisterBlocks(Registrator<Block> reg)
@@ -58,15 +80,66 @@ public class Clockout
 	
 	public static void onPlayerLoggedIn(PlayerLoggedInEvent event)
 	{
-		PlayerEntity player = event.getPlayer();
-		Util.as(player.getEntityWorld(), ServerWorld.class)
-			.ifPresent(world -> OwnedClockoutBlocksData.get(world).onPlayerLogin(world, player));
+		PresenceProviders.VANILLA.onPlayerLoggedIn(event.getPlayer());
 	}
 	
 	public static void onPlayerLoggedOut(PlayerLoggedOutEvent event)
 	{
-		PlayerEntity player = event.getPlayer();
-		Util.as(player.getEntityWorld(), ServerWorld.class)
-			.ifPresent(world -> OwnedClockoutBlocksData.get(world).onPlayerLogout(world, player));
+		PresenceProviders.VANILLA.onPlayerLoggedOut(event.getPlayer());
+	}
+	
+	public static void onChunkLoad(ChunkEvent.Load event)
+	{
+		Util.as(event.getWorld(), ServerWorld.class)
+			.ifPresent(world -> OwnedClockoutBlocksData.get(world).onChunkLoad(world, event.getChunk().getPos()));
+	}
+	
+	public static void onServerTick(ServerTickEvent event)
+	{
+		MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+		if (event.phase == TickEvent.Phase.END && server != null)
+		{
+			PresenceProviders.tick(server);
+			OwnedClockoutBlocksData.get(server.getWorld(World.OVERWORLD)).onServerTick(server);
+		}
+	}
+	
+	public static void onRegisterCommands(RegisterCommandsEvent event)
+	{
+		ClockoutCommands.register(event.getDispatcher());
+	}
+	
+	public static void onServerStarted(FMLServerStartedEvent event)
+	{
+		MinecraftServer server = event.getServer();
+		OwnedClockoutBlocksData data = OwnedClockoutBlocksData.refreshCachedData(server);
+		data.setStorageEngine(config.storage_engine.get());
+		if (config.journaled_persistence.get())
+		{
+			data.openJournal(server);
+		}
+		PresenceProviders.start(server, data);
+	}
+	
+	public static void onServerStopping(FMLServerStoppingEvent event)
+	{
+		OwnedClockoutBlocksData data = OwnedClockoutBlocksData.get(event.getServer().getWorld(World.OVERWORLD));
+		data.onServerStopping();
+		if (data.isJournaling())
+		{
+			// compact the journal into a full save on shutdown
+			data.markDirty();
+		}
+	}
+	
+	public static void onServerStopped(FMLServerStoppedEvent event)
+	{
+		PresenceProviders.stop(event.getServer());
+		OwnedClockoutBlocksData.get(event.getServer().getWorld(World.OVERWORLD)).closeJournal();
+		OwnedClockoutBlocksData.clearCachedData();
+		OwnerNameCache.clear();
+		ServerClockoutWorld.clear();
+		ClockoutQueries.publish(OwnershipSnapshot.EMPTY);
+		BackgroundSaver.awaitPendingSaves(config.background_save_shutdown_timeout.get(), TimeUnit.SECONDS);
 	}
 }
@@ -2,11 +2,14 @@ package commoble.clockout;
 
 import java.util.UUID;
 
+import javax.annotation.Nullable;
+
 import commoble.clockout.util.Util;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.entity.player.ServerPlayerEntity;
 import net.minecraft.item.BlockItemUseContext;
 import net.minecraft.item.ItemStack;
 import net.minecraft.state.BooleanProperty;
@@ -26,6 +29,8 @@ import net.minecraft.world.server.ServerWorld;
 public class ClockoutBlock extends Block
 {
 	public static final BooleanProperty POWERED = BlockStateProperties.POWERED;
+	/** If false, the block doesn't give off light while powered, so turning it on or off doesn't cause lighting updates **/
+	public static final BooleanProperty EMISSIVE = BooleanProperty.create("emissive");
 
 	public final int POWER_WHILE_ON = 15;
 	public final int POWER_WHILE_OFF = 0;
@@ -33,16 +38,22 @@ public class ClockoutBlock extends Block
 	public static final String OWN_BLOCK_MESSAGE = "block.clockout.clockout_block.owned";
 	public static final String ANONYMOUS_OWNER_MESSAGE = "block.clockout.clockout_block.anonymous_owner";
 	public static final String KNOWN_OWNER_MESSAGE = "block.clockout.clockout_block.known_owner";
+	public static final String UNKNOWN_OWNER_MESSAGE = "block.clockout.clockout_block.unknown_owner";
+	public static final String LOOKING_UP_OWNER_MESSAGE = "block.clockout.clockout_block.looking_up_owner";
+	public static final String OWN_GROUP_MESSAGE = "block.clockout.clockout_block.own_group";
+	public static final String GROUP_OWNER_MESSAGE = "block.clockout.clockout_block.group_owner";
+	public static final String QUOTA_REACHED_MESSAGE = "block.clockout.clockout_block.quota_reached";
+	public static final String DIMENSION_QUOTA_REACHED_MESSAGE = "block.clockout.clockout_block.dimension_quota_reached";
 
 	public ClockoutBlock(Properties properties)
 	{
 		super(properties);
-		this.setDefaultState(this.getDefaultState().with(POWERED, false));
+		this.setDefaultState(this.getDefaultState().with(POWERED, false).with(EMISSIVE, true));
 	}
 
 	public static int getLightValue(BlockState state)
 	{
-		return state.get(POWERED) ? 7 : 0;
+		return state.get(POWERED) && state.get(EMISSIVE) ? 7 : 0;
 	}
 
 	@Override
@@ -55,14 +66,44 @@ public class ClockoutBlock extends Block
 		else
 		{
 			ServerWorld serverWorld = (ServerWorld)world;
-			UUID ownerID = OwnedClockoutBlocksData.get(world).getBlockOwner(world, pos);
+			OwnedClockoutBlocksData data = OwnedClockoutBlocksData.get(world);
+			OwnerGroups groups = data.getGroups();
+			UUID ownerID = data.getBlockOwner(world, pos);
 			UUID playerID = player.getGameProfile().getId();
-			ITextComponent message = ownerID.equals(playerID)
-				? new TranslationTextComponent(OWN_BLOCK_MESSAGE)
-				: player.hasPermissionLevel(Clockout.config.permission_level_for_seeing_clockout_owners.get())
-					? new TranslationTextComponent(KNOWN_OWNER_MESSAGE, serverWorld.getServer().getPlayerProfileCache().getProfileByUUID(ownerID).getName())
-					: new TranslationTextComponent(ANONYMOUS_OWNER_MESSAGE);
-			player.sendStatusMessage(message, true);
+			if (ownerID == null)
+			{
+				player.sendStatusMessage(new TranslationTextComponent(UNKNOWN_OWNER_MESSAGE), true);
+			}
+			else if (ownerID.equals(playerID))
+			{
+				player.sendStatusMessage(new TranslationTextComponent(OWN_BLOCK_MESSAGE), true);
+			}
+			else if (groups.isGroup(ownerID) && (groups.isMember(ownerID, playerID) || player.hasPermissionLevel(Clockout.config.permission_level_for_seeing_clockout_owners.get())))
+			{
+				String groupName = groups.getName(ownerID).orElse("");
+				player.sendStatusMessage(new TranslationTextComponent(groups.isMember(ownerID, playerID) ? OWN_GROUP_MESSAGE : GROUP_OWNER_MESSAGE, groupName), true);
+			}
+			else if (player.hasPermissionLevel(Clockout.config.permission_level_for_seeing_clockout_owners.get()))
+			{
+				// looking up the owner's name can take a while, so show the name once we have it
+				boolean isNameCached = OwnerNameCache.get(serverWorld.getServer()).lookup(ownerID, name ->
+				{
+					if (!(player instanceof ServerPlayerEntity && ((ServerPlayerEntity)player).hasDisconnected()))
+					{
+						player.sendStatusMessage(name
+							.<ITextComponent>map(knownName -> new TranslationTextComponent(KNOWN_OWNER_MESSAGE, knownName))
+							.orElseGet(() -> new TranslationTextComponent(UNKNOWN_OWNER_MESSAGE)), true);
+					}
+				});
+				if (!isNameCached)
+				{
+					player.sendStatusMessage(new TranslationTextComponent(LOOKING_UP_OWNER_MESSAGE), true);
+				}
+			}
+			else
+			{
+				player.sendStatusMessage(new TranslationTextComponent(ANONYMOUS_OWNER_MESSAGE), true);
+			}
 			return ActionResultType.SUCCESS;
 		}
 	}
@@ -78,9 +119,21 @@ public class ClockoutBlock extends Block
 		{
 			Util.as(placer, PlayerEntity.class)
 				.filter(player -> player.getGameProfile().getId() != null)
-				.ifPresent(player -> 
-					OwnedClockoutBlocksData.get(world).putBlock(player.getGameProfile().getId(), world, pos)
-				);
+				.ifPresent(player ->
+				{
+					// getStateForPlacement has already checked the quotas for normal placements,
+					// but other mods can place blocks without it, so remove blocks that would go over a quota
+					ITextComponent quotaMessage = getQuotaMessage(player, world);
+					if (quotaMessage != null)
+					{
+						player.sendStatusMessage(quotaMessage, true);
+						world.destroyBlock(pos, !player.isCreative());
+						return;
+					}
+					// players can choose to place blocks for one of their groups instead of for themselves
+					OwnedClockoutBlocksData data = OwnedClockoutBlocksData.get(world);
+					data.putBlock(data.getGroups().getPlacementOwner(player.getGameProfile().getId()), world, pos);
+				});
 		}
 		super.onBlockPlacedBy(world, pos, state, placer, stack);
 	}
@@ -98,8 +151,47 @@ public class ClockoutBlock extends Block
 	@Override
 	public BlockState getStateForPlacement(BlockItemUseContext context)
 	{
-		boolean shouldStartPowered = context.getPlayer() != null && context.getPlayer().getGameProfile().getId() != null;
-		return this.getDefaultState().with(POWERED, shouldStartPowered);
+		PlayerEntity player = context.getPlayer();
+		boolean shouldStartPowered = player != null && player.getGameProfile().getId() != null;
+		if (shouldStartPowered && !context.getWorld().isRemote())
+		{
+			ITextComponent quotaMessage = getQuotaMessage(player, context.getWorld());
+			if (quotaMessage != null)
+			{
+				// no state cancels the placement, and the server tells the client to undo its prediction
+				player.sendStatusMessage(quotaMessage, true);
+				return null;
+			}
+		}
+		// the server config isn't available to the client, but the server's state replaces the client's prediction anyway
+		boolean emissive = context.getWorld().isRemote() || Clockout.config.emit_light.get();
+		return this.getDefaultState().with(POWERED, shouldStartPowered).with(EMISSIVE, emissive);
+	}
+
+	/**
+	 * Checks whether the player can place another clockout block without the owner it'd belong to going over a quota.
+	 * Only reads the owner's block counts, so it takes the same time however many blocks they have. Server side only
+	 * @return The message to show the player if they can't, or null if they can
+	 */
+	public static @Nullable ITextComponent getQuotaMessage(PlayerEntity player, World world)
+	{
+		if (player.hasPermissionLevel(Clockout.config.permission_level_for_exceeding_quotas.get()))
+		{
+			return null;
+		}
+		OwnedClockoutBlocksData data = OwnedClockoutBlocksData.get(world);
+		UUID ownerID = data.getGroups().getPlacementOwner(player.getGameProfile().getId());
+		int maxBlocks = Clockout.config.max_clockouts_per_owner.get();
+		if (maxBlocks > 0 && data.getOwnedBlockCount(ownerID) >= maxBlocks)
+		{
+			return new TranslationTextComponent(QUOTA_REACHED_MESSAGE, maxBlocks);
+		}
+		int maxBlocksInDimension = Clockout.config.max_clockouts_per_owner_per_dimension.get();
+		if (maxBlocksInDimension > 0 && data.getOwnedBlockCount(ownerID, world.getDimensionKey()) >= maxBlocksInDimension)
+		{
+			return new TranslationTextComponent(DIMENSION_QUOTA_REACHED_MESSAGE, maxBlocksInDimension);
+		}
+		return null;
 	}
 
 	@Override
@@ -123,6 +215,6 @@ public class ClockoutBlock extends Block
 	@Override
 	protected void fillStateContainer(Builder<Block, BlockState> builder)
 	{
-		builder.add(POWERED);
+		builder.add(POWERED, EMISSIVE);
 	}
 }
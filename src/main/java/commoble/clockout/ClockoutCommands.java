@@ -0,0 +1,425 @@
+package commoble.clockout;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nullable;
+
+import com.mojang.authlib.GameProfile;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+import net.minecraft.command.ISuggestionProvider;
+import net.minecraft.command.arguments.GameProfileArgument;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.ITextComponent;
+import net.minecraft.util.text.StringTextComponent;
+import net.minecraft.util.text.TranslationTextComponent;
+import net.minecraft.world.World;
+
+public class ClockoutCommands
+{
+	public static final String GROUP = "group";
+	public static final String PLAYERS = "players";
+	public static final String PLAYER = "player";
+	public static final String RADIUS = "radius";
+	public static final String PAGE = "page";
+	
+	public static final int PAGE_SIZE = 10;
+	public static final int DEFAULT_RADIUS = 64;
+	public static final int MAX_RADIUS = 1024;
+	
+	public static final DynamicCommandExceptionType UNKNOWN_GROUP = new DynamicCommandExceptionType(name -> new TranslationTextComponent("commands.clockout.group.unknown", name));
+	public static final DynamicCommandExceptionType GROUP_EXISTS = new DynamicCommandExceptionType(name -> new TranslationTextComponent("commands.clockout.group.exists", name));
+	public static final DynamicCommandExceptionType NOT_A_MEMBER = new DynamicCommandExceptionType(name -> new TranslationTextComponent("commands.clockout.group.not_a_member", name));
+	public static final SimpleCommandExceptionType NO_CHANGE = new SimpleCommandExceptionType(new TranslationTextComponent("commands.clockout.group.no_change"));
+	public static final SimpleCommandExceptionType TOO_MANY_PLAYERS = new SimpleCommandExceptionType(new TranslationTextComponent("commands.clockout.list.too_many_players"));
+	
+	private static final SuggestionProvider<CommandSource> SUGGEST_GROUPS = (context, builder) ->
+		ISuggestionProvider.suggest(getData(context).getGroups().getNames(), builder);
+	
+	public static void register(CommandDispatcher<CommandSource> dispatcher)
+	{
+		dispatcher.register(Commands.literal(Clockout.MODID)
+			.then(Commands.literal("stats")
+				.requires(source -> source.hasPermissionLevel(Clockout.config.permission_level_for_stats.get()))
+				.executes(ClockoutCommands::showStats))
+			.then(makeGroupCommand())
+			.then(Commands.literal("near")
+				.requires(ClockoutCommands::canQuery)
+				.executes(context -> listNear(context, DEFAULT_RADIUS, 1))
+				.then(Commands.argument(RADIUS, IntegerArgumentType.integer(1, MAX_RADIUS))
+					.executes(context -> listNear(context, IntegerArgumentType.getInteger(context, RADIUS), 1))
+					.then(Commands.argument(PAGE, IntegerArgumentType.integer(1))
+						.executes(context -> listNear(context, IntegerArgumentType.getInteger(context, RADIUS), IntegerArgumentType.getInteger(context, PAGE))))))
+			.then(Commands.literal("list")
+				.requires(ClockoutCommands::canQuery)
+				.then(Commands.argument(PLAYER, GameProfileArgument.gameProfile())
+					.executes(context -> listOwned(context, 1))
+					.then(Commands.argument(PAGE, IntegerArgumentType.integer(1))
+						.executes(context -> listOwned(context, IntegerArgumentType.getInteger(context, PAGE))))))
+			.then(Commands.literal("count")
+				.requires(ClockoutCommands::canQuery)
+				.executes(context -> countAll(context, 1))
+				.then(Commands.argument(PAGE, IntegerArgumentType.integer(1))
+					.executes(context -> countAll(context, IntegerArgumentType.getInteger(context, PAGE))))
+				.then(Commands.literal("within")
+					.then(Commands.argument(RADIUS, IntegerArgumentType.integer(1, MAX_RADIUS))
+						.executes(context -> countNear(context, IntegerArgumentType.getInteger(context, RADIUS), 1))
+						.then(Commands.argument(PAGE, IntegerArgumentType.integer(1))
+							.executes(context -> countNear(context, IntegerArgumentType.getInteger(context, RADIUS), IntegerArgumentType.getInteger(context, PAGE)))))))
+			.then(Commands.literal("quota")
+				.requires(ClockoutCommands::canQuery)
+				.executes(context -> showQuotas(context, 1))
+				.then(Commands.argument(PAGE, IntegerArgumentType.integer(1))
+					.executes(context -> showQuotas(context, IntegerArgumentType.getInteger(context, PAGE))))
+				.then(Commands.literal("of")
+					.then(Commands.argument(PLAYER, GameProfileArgument.gameProfile())
+						.executes(ClockoutCommands::showPlayerQuotas)))));
+	}
+	
+	private static LiteralArgumentBuilder<CommandSource> makeGroupCommand()
+	{
+		return Commands.literal(GROUP)
+			.then(Commands.literal("list")
+				.executes(ClockoutCommands::listGroups))
+			.then(Commands.literal("select")
+				.then(Commands.argument(GROUP, StringArgumentType.word())
+					.suggests(SUGGEST_GROUPS)
+					.executes(ClockoutCommands::selectGroup)))
+			.then(Commands.literal("deselect")
+				.executes(ClockoutCommands::deselectGroup))
+			.then(Commands.literal("create")
+				.requires(ClockoutCommands::canManageGroups)
+				.then(Commands.argument(GROUP, StringArgumentType.word())
+					.executes(ClockoutCommands::createGroup)))
+			.then(Commands.literal("delete")
+				.requires(ClockoutCommands::canManageGroups)
+				.then(Commands.argument(GROUP, StringArgumentType.word())
+					.suggests(SUGGEST_GROUPS)
+					.executes(ClockoutCommands::deleteGroup)))
+			.then(Commands.literal("add")
+				.requires(ClockoutCommands::canManageGroups)
+				.then(Commands.argument(GROUP, StringArgumentType.word())
+					.suggests(SUGGEST_GROUPS)
+					.then(Commands.argument(PLAYERS, GameProfileArgument.gameProfile())
+						.executes(context -> changeMembers(context, true)))))
+			.then(Commands.literal("remove")
+				.requires(ClockoutCommands::canManageGroups)
+				.then(Commands.argument(GROUP, StringArgumentType.word())
+					.suggests(SUGGEST_GROUPS)
+					.then(Commands.argument(PLAYERS, GameProfileArgument.gameProfile())
+						.executes(context -> changeMembers(context, false)))));
+	}
+	
+	private static boolean canManageGroups(CommandSource source)
+	{
+		return source.hasPermissionLevel(Clockout.config.permission_level_for_managing_groups.get());
+	}
+	
+	private static boolean canQuery(CommandSource source)
+	{
+		return source.hasPermissionLevel(Clockout.config.permission_level_for_queries.get());
+	}
+	
+	private static OwnedClockoutBlocksData getData(CommandContext<CommandSource> context)
+	{
+		return OwnedClockoutBlocksData.get(context.getSource().getServer().getWorld(World.OVERWORLD));
+	}
+	
+	private static UUID getGroupID(CommandContext<CommandSource> context, OwnedClockoutBlocksData data) throws CommandSyntaxException
+	{
+		String name = StringArgumentType.getString(context, GROUP);
+		return data.getGroups().getGroupID(name).orElseThrow(() -> UNKNOWN_GROUP.create(name));
+	}
+	
+	private static int showStats(CommandContext<CommandSource> context)
+	{
+		CommandSource source = context.getSource();
+		OwnedClockoutBlocksData data = getData(context);
+		ClockoutMetrics.describe(data).forEach(line -> source.sendFeedback(new StringTextComponent(line), false));
+		return 1;
+	}
+	
+	private static int listGroups(CommandContext<CommandSource> context)
+	{
+		CommandSource source = context.getSource();
+		OwnerGroups groups = getData(context).getGroups();
+		Collection<String> names = groups.getNames();
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.group.list", names.size()), false);
+		for (String name : names)
+		{
+			int members = groups.getGroupID(name).map(groupID -> groups.getMembers(groupID).size()).orElse(0);
+			source.sendFeedback(new TranslationTextComponent("commands.clockout.group.list.entry", name, members), false);
+		}
+		return names.size();
+	}
+	
+	private static int selectGroup(CommandContext<CommandSource> context) throws CommandSyntaxException
+	{
+		CommandSource source = context.getSource();
+		UUID playerID = source.asPlayer().getGameProfile().getId();
+		OwnedClockoutBlocksData data = getData(context);
+		UUID groupID = getGroupID(context, data);
+		String name = StringArgumentType.getString(context, GROUP);
+		if (!data.getGroups().select(playerID, groupID))
+		{
+			throw NOT_A_MEMBER.create(name);
+		}
+		data.markDirty();
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.group.select", name), false);
+		return 1;
+	}
+	
+	private static int deselectGroup(CommandContext<CommandSource> context) throws CommandSyntaxException
+	{
+		CommandSource source = context.getSource();
+		UUID playerID = source.asPlayer().getGameProfile().getId();
+		OwnedClockoutBlocksData data = getData(context);
+		data.getGroups().select(playerID, null);
+		data.markDirty();
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.group.deselect"), false);
+		return 1;
+	}
+	
+	private static int createGroup(CommandContext<CommandSource> context) throws CommandSyntaxException
+	{
+		String name = StringArgumentType.getString(context, GROUP);
+		OwnedClockoutBlocksData data = getData(context);
+		data.getGroups().create(name).orElseThrow(() -> GROUP_EXISTS.create(name));
+		data.markDirty();
+		context.getSource().sendFeedback(new TranslationTextComponent("commands.clockout.group.create", name), true);
+		return 1;
+	}
+	
+	private static int deleteGroup(CommandContext<CommandSource> context) throws CommandSyntaxException
+	{
+		String name = StringArgumentType.getString(context, GROUP);
+		OwnedClockoutBlocksData data = getData(context);
+		data.getGroups().delete(getGroupID(context, data));
+		data.markDirty();
+		context.getSource().sendFeedback(new TranslationTextComponent("commands.clockout.group.delete", name), true);
+		return 1;
+	}
+	
+	private static int changeMembers(CommandContext<CommandSource> context, boolean add) throws CommandSyntaxException
+	{
+		String name = StringArgumentType.getString(context, GROUP);
+		OwnedClockoutBlocksData data = getData(context);
+		UUID groupID = getGroupID(context, data);
+		OwnerGroups groups = data.getGroups();
+		int changed = 0;
+		for (GameProfile profile : GameProfileArgument.getGameProfiles(context, PLAYERS))
+		{
+			UUID playerID = profile.getId();
+			boolean isOnline = data.isPlayerOnline(playerID);
+			if (add ? groups.addMember(groupID, playerID, isOnline) : groups.removeMember(groupID, playerID, isOnline))
+			{
+				changed++;
+				String key = add ? "commands.clockout.group.add" : "commands.clockout.group.remove";
+				context.getSource().sendFeedback(new TranslationTextComponent(key, Optional.ofNullable(profile.getName()).orElse(playerID.toString()), name), true);
+			}
+		}
+		if (changed == 0)
+		{
+			throw NO_CHANGE.create();
+		}
+		data.markDirty();
+		return changed;
+	}
+	
+	// results are streamed from the index and only the requested page is shown, so big results don't cost more than small ones to page through
+	private static int listNear(CommandContext<CommandSource> context, int radius, int page)
+	{
+		CommandSource source = context.getSource();
+		OwnedClockoutBlocksData data = getData(context);
+		BlockPos center = new BlockPos(source.getPos());
+		Paginator paginator = new Paginator(page);
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.near", radius, page), false);
+		data.forEachBlockNear(source.getWorld().getDimensionKey(), center, radius, (dimID, packedPos, ownerID) -> paginator.offer(() ->
+		{
+			BlockPos pos = BlockPos.fromLong(packedPos);
+			int distance = (int)Math.sqrt(pos.distanceSq(center));
+			source.sendFeedback(new TranslationTextComponent("commands.clockout.near.entry", pos.getX(), pos.getY(), pos.getZ(), describeOwner(source, data, ownerID), distance), false);
+		}));
+		return paginator.finish(source, String.format("/%s near %d %d", Clockout.MODID, radius, page + 1L));
+	}
+	
+	// only one player at a time, so that each player's blocks are paged through on their own
+	private static int listOwned(CommandContext<CommandSource> context, int page) throws CommandSyntaxException
+	{
+		CommandSource source = context.getSource();
+		OwnedClockoutBlocksData data = getData(context);
+		Collection<GameProfile> profiles = GameProfileArgument.getGameProfiles(context, PLAYER);
+		if (profiles.size() > 1)
+		{
+			throw TOO_MANY_PLAYERS.create();
+		}
+		GameProfile profile = profiles.iterator().next();
+		String name = Optional.ofNullable(profile.getName()).orElse(profile.getId().toString());
+		// players can only be given to the command by name, so there's no command for the next page of a player whose name we don't know
+		String nextPageCommand = profile.getName() == null ? null : String.format("/%s list %s %d", Clockout.MODID, profile.getName(), page + 1L);
+		Paginator paginator = new Paginator(page);
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.list", name, page), false);
+		data.forEachOwnedBlock(profile.getId(), (dimID, packedPos, ownerID) -> paginator.offer(() ->
+		{
+			BlockPos pos = BlockPos.fromLong(packedPos);
+			source.sendFeedback(new TranslationTextComponent("commands.clockout.list.entry", pos.getX(), pos.getY(), pos.getZ(), dimID.getLocation().toString()), false);
+		}));
+		return paginator.finish(source, nextPageCommand);
+	}
+	
+	// counts every owner's blocks in every dimension, from the snapshot of the ownership data that is kept for queries
+	private static int countAll(CommandContext<CommandSource> context, int page)
+	{
+		CommandSource source = context.getSource();
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.count", page), false);
+		return showCounts(source, getData(context), ClockoutQueries.countsByPlayer(), page, String.format("/%s count %d", Clockout.MODID, page + 1L), ClockoutCommands::describeCount);
+	}
+	
+	private static int countNear(CommandContext<CommandSource> context, int radius, int page)
+	{
+		CommandSource source = context.getSource();
+		OwnedClockoutBlocksData data = getData(context);
+		Object2IntMap<UUID> counts = new Object2IntOpenHashMap<>();
+		data.forEachBlockNear(source.getWorld().getDimensionKey(), new BlockPos(source.getPos()), radius, (dimID, packedPos, ownerID) ->
+		{
+			counts.put(ownerID, counts.getInt(ownerID) + 1);
+			return true;
+		});
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.count.within", radius, page), false);
+		return showCounts(source, data, counts, page, String.format("/%s count within %d %d", Clockout.MODID, radius, page + 1L), ClockoutCommands::describeCount);
+	}
+	
+	// shows the quotas and the owners with the most blocks, from the live data so that it matches what placement checks
+	private static int showQuotas(CommandContext<CommandSource> context, int page)
+	{
+		CommandSource source = context.getSource();
+		OwnedClockoutBlocksData data = getData(context);
+		ITextComponent maxBlocks = describeQuota(Clockout.config.max_clockouts_per_owner.get());
+		source.sendFeedback(new TranslationTextComponent("commands.clockout.quota", maxBlocks, describeQuota(Clockout.config.max_clockouts_per_owner_per_dimension.get()), page), false);
+		return showCounts(source, data, data.getOwnedBlockCounts(), page, String.format("/%s quota %d", Clockout.MODID, page + 1L),
+			(owner, count) -> new TranslationTextComponent("commands.clockout.quota.entry", owner, count, maxBlocks));
+	}
+	
+	private static int showPlayerQuotas(CommandContext<CommandSource> context) throws CommandSyntaxException
+	{
+		CommandSource source = context.getSource();
+		OwnedClockoutBlocksData data = getData(context);
+		ITextComponent maxBlocks = describeQuota(Clockout.config.max_clockouts_per_owner.get());
+		ITextComponent maxBlocksInDimension = describeQuota(Clockout.config.max_clockouts_per_owner_per_dimension.get());
+		int shown = 0;
+		for (GameProfile profile : GameProfileArgument.getGameProfiles(context, PLAYER))
+		{
+			UUID ownerID = profile.getId();
+			String name = Optional.ofNullable(profile.getName()).orElse(ownerID.toString());
+			source.sendFeedback(new TranslationTextComponent("commands.clockout.quota.player", name, data.getOwnedBlockCount(ownerID), maxBlocks), false);
+			List<RegistryKey<World>> dimIDs = new ArrayList<>(data.getOwnedDimensions(ownerID));
+			dimIDs.sort(Comparator.comparing(dimID -> dimID.getLocation().toString()));
+			for (RegistryKey<World> dimID : dimIDs)
+			{
+				source.sendFeedback(new TranslationTextComponent("commands.clockout.quota.dimension", dimID.getLocation().toString(), data.getOwnedBlockCount(ownerID, dimID), maxBlocksInDimension), false);
+			}
+			shown++;
+		}
+		return shown;
+	}
+	
+	private static ITextComponent describeQuota(int quota)
+	{
+		return quota > 0 ? new StringTextComponent(Integer.toString(quota)) : new TranslationTextComponent("commands.clockout.quota.unlimited");
+	}
+	
+	private static ITextComponent describeCount(String owner, int count)
+	{
+		return new TranslationTextComponent("commands.clockout.count.entry", owner, count);
+	}
+	
+	// shows the owners with the most blocks first
+	private static int showCounts(CommandSource source, OwnedClockoutBlocksData data, Map<UUID, Integer> counts, int page, String nextPageCommand, BiFunction<String, Integer, ITextComponent> describeEntry)
+	{
+		List<Map.Entry<UUID, Integer>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort(Map.Entry.<UUID, Integer>comparingByValue().reversed());
+		Paginator paginator = new Paginator(page);
+		for (Map.Entry<UUID, Integer> entry : entries)
+		{
+			if (!paginator.offer(() -> source.sendFeedback(describeEntry.apply(describeOwner(source, data, entry.getKey()), entry.getValue()), false)))
+			{
+				break;
+			}
+		}
+		return paginator.finish(source, nextPageCommand);
+	}
+	
+	// the group's name, or the player's name if it's in the owner name cache, since looking up unknown players would block the server thread
+	// names that aren't cached yet are looked up in the background and shown the next time
+	private static String describeOwner(CommandSource source, OwnedClockoutBlocksData data, UUID ownerID)
+	{
+		return data.getGroups().getName(ownerID)
+			.orElseGet(() -> OwnerNameCache.get(source.getServer()).getCachedName(ownerID)
+				.orElse(ownerID.toString()));
+	}
+	
+	// shows the results on one page of a stream of results, without keeping any of them
+	private static class Paginator
+	{
+		// longs so that big page numbers don't overflow
+		private final long start;
+		private long index = 0;
+		private boolean hasMore = false;
+		
+		private Paginator(int page)
+		{
+			this.start = (page - 1L) * PAGE_SIZE;
+		}
+		
+		// shows the result if it's on the page, returns false once the page is full and there are more results
+		private boolean offer(Runnable showResult)
+		{
+			if (this.index >= this.start + PAGE_SIZE)
+			{
+				this.hasMore = true;
+				return false;
+			}
+			if (this.index >= this.start)
+			{
+				showResult.run();
+			}
+			this.index++;
+			return true;
+		}
+		
+		// tells the source how to see the next page if there is one and there's a command for it, returns the number of results shown
+		private int finish(CommandSource source, @Nullable String nextPageCommand)
+		{
+			int shown = (int)Math.max(0L, this.index - this.start);
+			if (shown == 0)
+			{
+				source.sendFeedback(new TranslationTextComponent("commands.clockout.no_results"), false);
+			}
+			else if (this.hasMore && nextPageCommand != null)
+			{
+				source.sendFeedback(new TranslationTextComponent("commands.clockout.more", nextPageCommand), false);
+			}
+			return shown;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package commoble.clockout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.profiler.EmptyProfiler;
+import net.minecraft.profiler.IProfiler;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+
+/**
+ * Counters and histograms for what clockout costs the server, shown by /clockout stats and logged periodically.
+ * Safe to update from any thread, saves record their timings from the background saver thread.
+ */
+public class ClockoutMetrics
+{
+	public static final Histogram LOGIN_STATE_CHANGE_NANOS = new Histogram();
+	public static final Histogram BLOCKS_PER_TRANSITION = new Histogram();
+	public static final Histogram SET_BLOCK_POWERED_NANOS = new Histogram();
+	public static final Histogram GET_BLOCK_OWNER_NANOS = new Histogram();
+	public static final Histogram READ_NANOS = new Histogram();
+	public static final Histogram WRITE_NANOS = new Histogram();
+	public static final Histogram SAVE_ENCODE_NANOS = new Histogram();
+	
+	public static final LongAdder BLOCKS_FLIPPED = new LongAdder();
+	public static final LongAdder CHUNK_LOADS_TRIGGERED = new LongAdder();
+	public static final LongAdder UPDATES_DEFERRED = new LongAdder();
+	public static final LongAdder STALE_ENTRIES_PRUNED = new LongAdder();
+	public static final LongAdder POWER_CHANGES_SKIPPED = new LongAdder();
+	
+	// the player whose login or logout scheduled the most block updates so far
+	private static final AtomicReference<UUID> LARGEST_TRANSITION_PLAYER = new AtomicReference<>();
+	private static final AtomicLong LARGEST_TRANSITION_BLOCKS = new AtomicLong();
+	
+	// the server thread's profiler, or a profiler that does nothing if there's no server (e.g. in benchmarks)
+	public static IProfiler getProfiler()
+	{
+		MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+		return server == null ? EmptyProfiler.INSTANCE : server.getProfiler();
+	}
+	
+	public static void recordTransition(UUID playerID, long blocks, long nanos)
+	{
+		LOGIN_STATE_CHANGE_NANOS.record(nanos);
+		BLOCKS_PER_TRANSITION.record(blocks);
+		long largest = LARGEST_TRANSITION_BLOCKS.get();
+		if (blocks > largest && LARGEST_TRANSITION_BLOCKS.compareAndSet(largest, blocks))
+		{
+			LARGEST_TRANSITION_PLAYER.set(playerID);
+		}
+	}
+	
+	/**
+	 * @param data The ownership data to estimate the memory use of, or null to leave it out
+	 * @return Lines of text describing the current metrics
+	 */
+	public static List<String> describe(@Nullable OwnedClockoutBlocksData data)
+	{
+		List<String> lines = new ArrayList<>();
+		if (data != null)
+		{
+			lines.add(String.format("Ownership: %d blocks owned by %d players in the %s storage engine, ~%d KiB estimated heap, %d power updates queued",
+				data.getBlockCount(), data.getOwnerCount(), data.getStorageEngineName(), data.estimateHeapBytes() / 1024L, data.getScheduler().size()));
+		}
+		lines.add(String.format("Transitions: %s blocks per transition, largest %d blocks (%s)",
+			BLOCKS_PER_TRANSITION.describe(""), LARGEST_TRANSITION_BLOCKS.get(), LARGEST_TRANSITION_PLAYER.get()));
+		lines.add(String.format("Blocks: %d flipped, %d skipped as already in the right state, %d deferred, %d chunk loads triggered, %d stale entries pruned",
+			BLOCKS_FLIPPED.sum(), POWER_CHANGES_SKIPPED.sum(), UPDATES_DEFERRED.sum(), CHUNK_LOADS_TRIGGERED.sum(), STALE_ENTRIES_PRUNED.sum()));
+		lines.add("onPlayerLoginStateChange: " + LOGIN_STATE_CHANGE_NANOS.describeNanos());
+		lines.add("setBlockPowered: " + SET_BLOCK_POWERED_NANOS.describeNanos());
+		lines.add("getBlockOwner: " + GET_BLOCK_OWNER_NANOS.describeNanos());
+		lines.add("read: " + READ_NANOS.describeNanos());
+		lines.add("write: " + WRITE_NANOS.describeNanos());
+		lines.add("save encode: " + SAVE_ENCODE_NANOS.describeNanos());
+		return lines;
+	}
+	
+	/**
+	 * Histogram with power-of-two buckets, precise enough to tell microseconds from milliseconds
+	 * while costing a couple of atomic increments to record a value
+	 */
+	public static class Histogram
+	{
+		// bucket 0 counts zeroes, bucket i counts values in [2^(i-1), 2^i)
+		private final AtomicLongArray buckets = new AtomicLongArray(65);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+		
+		public void record(long value)
+		{
+			long clamped = Math.max(0L, value);
+			this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(clamped));
+			this.count.increment();
+			this.sum.add(clamped);
+			this.max.accumulateAndGet(clamped, Math::max);
+		}
+		
+		public long getCount()
+		{
+			return this.count.sum();
+		}
+		
+		public double getMean()
+		{
+			long count = this.count.sum();
+			return count == 0 ? 0D : (double)this.sum.sum() / count;
+		}
+		
+		public long getMax()
+		{
+			return this.max.get();
+		}
+		
+		// returns the upper bound of the bucket containing the given percentile
+		public long getPercentile(double percentile)
+		{
+			long count = this.count.sum();
+			long target = (long)Math.ceil(count * percentile / 100D);
+			long seen = 0;
+			for (int i=0; i<this.buckets.length(); i++)
+			{
+				seen += this.buckets.get(i);
+				if (seen >= target && seen > 0)
+				{
+					return i == 0 ? 0L : i >= 64 ? Long.MAX_VALUE : (1L << i) - 1L;
+				}
+			}
+			return 0L;
+		}
+		
+		public String describe(String unit)
+		{
+			return String.format("n=%d mean=%.1f%s p50<=%d%s p99<=%d%s max=%d%s",
+				this.getCount(), this.getMean(), unit, this.getPercentile(50D), unit, this.getPercentile(99D), unit, this.getMax(), unit);
+		}
+		
+		public String describeNanos()
+		{
+			return String.format("n=%d mean=%.1fus p50<=%.1fus p99<=%.1fus max=%.1fus",
+				this.getCount(), this.getMean() / 1000D, this.getPercentile(50D) / 1000D, this.getPercentile(99D) / 1000D, this.getMax() / 1000D);
+		}
+	}
+}
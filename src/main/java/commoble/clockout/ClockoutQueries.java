@@ -0,0 +1,65 @@
+package commoble.clockout;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableSet;
+
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * Read-only queries about who owns which clockout blocks, safe to call from any thread.
+ * Queries are answered from an immutable snapshot of the ownership data that the server thread publishes periodically,
+ * so they never block the server thread and may lag behind the live data by up to query_snapshot_interval ticks.
+ */
+public class ClockoutQueries
+{
+	private static volatile OwnershipSnapshot snapshot = OwnershipSnapshot.EMPTY;
+	
+	// called on the server thread when a new snapshot is taken
+	static void publish(OwnershipSnapshot newSnapshot)
+	{
+		snapshot = newSnapshot;
+	}
+	
+	/**
+	 * @param dimID The dimension the block is in
+	 * @param pos The position of the block
+	 * @return The UUID of the owner of the clockout block at the given position, or empty if there is no owned clockout block there
+	 */
+	public static Optional<UUID> ownerAt(RegistryKey<World> dimID, BlockPos pos)
+	{
+		return Optional.ofNullable(snapshot.getOwner(dimID, pos.toLong()));
+	}
+	
+	/**
+	 * @param playerID The UUID of a player
+	 * @param dimID A dimension
+	 * @return An immutable set of the positions of the clockout blocks the player owns in the given dimension
+	 */
+	public static Set<BlockPos> positionsOf(UUID playerID, RegistryKey<World> dimID)
+	{
+		LongSet positions = snapshot.getPositions(playerID, dimID);
+		ImmutableSet.Builder<BlockPos> builder = ImmutableSet.builder();
+		LongIterator iterator = positions.iterator();
+		while (iterator.hasNext())
+		{
+			builder.add(BlockPos.fromLong(iterator.nextLong()));
+		}
+		return builder.build();
+	}
+	
+	/**
+	 * @return An immutable map of the UUIDs of every player who owns any clockout blocks to the number of clockout blocks they own
+	 */
+	public static Map<UUID, Integer> countsByPlayer()
+	{
+		return snapshot.getCounts();
+	}
+}
@@ -0,0 +1,41 @@
+package commoble.clockout;
+
+import net.minecraft.util.RegistryKey;
+import net.minecraft.world.World;
+
+/**
+ * The parts of a dimension that the ownership data reads and changes when it powers clockout blocks,
+ * so that the ownership logic doesn't need a ServerWorld and can be run against a stand-in world without a server.
+ * ServerClockoutWorld is the real one. Positions are packed by BlockPos::toLong.
+ */
+public interface ClockoutWorld
+{
+	enum BlockPower
+	{
+		POWERED,
+		UNPOWERED,
+		// there isn't a clockout block at the position
+		MISSING;
+		
+		public static BlockPower of(boolean powered)
+		{
+			return powered ? POWERED : UNPOWERED;
+		}
+	}
+	
+	RegistryKey<World> getDimensionKey();
+	
+	boolean isBlockLoaded(long packedPos);
+	
+	// loads the block's chunk if it isn't loaded
+	BlockPower getBlockPower(long packedPos);
+	
+	/**
+	 * Turns the clockout block at the position on or off, sending the change to clients but without notifying its neighbors
+	 * @return true if the block was changed
+	 */
+	boolean setBlockPowered(long packedPos, boolean powered);
+	
+	// tells the neighbors of a clockout block that it changed
+	void notifyNeighbors(long packedPos);
+}
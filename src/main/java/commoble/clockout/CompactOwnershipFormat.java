@@ -0,0 +1,161 @@
+package commoble.clockout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.IntArrayNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.LongArrayNBT;
+import net.minecraft.nbt.StringNBT;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * Versioned NBT layout for the player->dimension->positions ownership map that avoids the overhead of the codec layout.
+ * Each dimension ID is written once to a string table, each player UUID is written as two longs,
+ * and each player's positions in a dimension are written as a single long array of packed positions.
+ * 
+ * <pre>
+ * {
+ *   version: 1,
+ *   dimensions: ["minecraft:overworld", ...],
+ *   owners: [{most: long, least: long, dimensions: [index into dimension table, ...], positions: [[packed positions], ...]}, ...]
+ * }
+ * </pre>
+ * 
+ * Each dimension's blocks can also be written on their own, without the dimension table:
+ * 
+ * <pre>
+ * {
+ *   version: 1,
+ *   owners: [{most: long, least: long, positions: [packed positions]}, ...]
+ * }
+ * </pre>
+ */
+public class CompactOwnershipFormat
+{
+	public static final int CURRENT_VERSION = 1;
+	
+	public static final String VERSION = "version";
+	public static final String DIMENSIONS = "dimensions";
+	public static final String OWNERS = "owners";
+	public static final String MOST = "most";
+	public static final String LEAST = "least";
+	public static final String POSITIONS = "positions";
+	
+	// data written before the compact format existed doesn't have a version
+	public static boolean isCompact(CompoundNBT nbt)
+	{
+		return nbt.contains(VERSION, Constants.NBT.TAG_INT);
+	}
+	
+	public static CompoundNBT write(Map<UUID, Map<RegistryKey<World>, LongSet>> map, CompoundNBT nbt)
+	{
+		Object2IntMap<RegistryKey<World>> dimensionIndices = new Object2IntOpenHashMap<>();
+		ListNBT dimensionTable = new ListNBT();
+		ListNBT owners = new ListNBT();
+		map.forEach((playerID, subMap) ->
+		{
+			int[] dimensions = new int[subMap.size()];
+			ListNBT positions = new ListNBT();
+			int i = 0;
+			for (Map.Entry<RegistryKey<World>, LongSet> entry : subMap.entrySet())
+			{
+				RegistryKey<World> dimID = entry.getKey();
+				if (!dimensionIndices.containsKey(dimID))
+				{
+					dimensionIndices.put(dimID, dimensionTable.size());
+					dimensionTable.add(StringNBT.valueOf(dimID.getLocation().toString()));
+				}
+				dimensions[i++] = dimensionIndices.getInt(dimID);
+				positions.add(new LongArrayNBT(entry.getValue().toLongArray()));
+			}
+			CompoundNBT owner = new CompoundNBT();
+			owner.putLong(MOST, playerID.getMostSignificantBits());
+			owner.putLong(LEAST, playerID.getLeastSignificantBits());
+			owner.put(DIMENSIONS, new IntArrayNBT(dimensions));
+			owner.put(POSITIONS, positions);
+			owners.add(owner);
+		});
+		
+		nbt.putInt(VERSION, CURRENT_VERSION);
+		nbt.put(DIMENSIONS, dimensionTable);
+		nbt.put(OWNERS, owners);
+		return nbt;
+	}
+	
+	public static CompoundNBT writeDimension(Map<UUID, LongSet> positionsByOwner, CompoundNBT nbt)
+	{
+		ListNBT owners = new ListNBT();
+		positionsByOwner.forEach((ownerID, positions) ->
+		{
+			CompoundNBT owner = new CompoundNBT();
+			owner.putLong(MOST, ownerID.getMostSignificantBits());
+			owner.putLong(LEAST, ownerID.getLeastSignificantBits());
+			owner.put(POSITIONS, new LongArrayNBT(positions.toLongArray()));
+			owners.add(owner);
+		});
+		nbt.putInt(VERSION, CURRENT_VERSION);
+		nbt.put(OWNERS, owners);
+		return nbt;
+	}
+	
+	// the positions are returned as the arrays they were stored as, so the caller can decide how to keep them
+	public static Map<UUID, long[]> readDimension(CompoundNBT nbt)
+	{
+		Map<UUID, long[]> positionsByOwner = new HashMap<>();
+		ListNBT owners = nbt.getList(OWNERS, Constants.NBT.TAG_COMPOUND);
+		for (int i=0; i<owners.size(); i++)
+		{
+			CompoundNBT owner = owners.getCompound(i);
+			UUID ownerID = new UUID(owner.getLong(MOST), owner.getLong(LEAST));
+			positionsByOwner.put(ownerID, owner.getLongArray(POSITIONS));
+		}
+		return positionsByOwner;
+	}
+	
+	public static Map<UUID, Map<RegistryKey<World>, LongSet>> read(CompoundNBT nbt)
+	{
+		ListNBT dimensionTable = nbt.getList(DIMENSIONS, Constants.NBT.TAG_STRING);
+		List<RegistryKey<World>> dimensions = new ArrayList<>(dimensionTable.size());
+		for (int i=0; i<dimensionTable.size(); i++)
+		{
+			ResourceLocation location = ResourceLocation.tryCreate(dimensionTable.getString(i));
+			dimensions.add(location == null ? null : RegistryKey.getOrCreateKey(Registry.WORLD_KEY, location));
+		}
+		
+		Map<UUID, Map<RegistryKey<World>, LongSet>> map = new HashMap<>();
+		ListNBT owners = nbt.getList(OWNERS, Constants.NBT.TAG_COMPOUND);
+		for (int ownerIndex=0; ownerIndex<owners.size(); ownerIndex++)
+		{
+			CompoundNBT owner = owners.getCompound(ownerIndex);
+			UUID playerID = new UUID(owner.getLong(MOST), owner.getLong(LEAST));
+			int[] dimensionIndices = owner.getIntArray(DIMENSIONS);
+			ListNBT positions = owner.getList(POSITIONS, Constants.NBT.TAG_LONG_ARRAY);
+			Map<RegistryKey<World>, LongSet> subMap = new HashMap<>();
+			for (int i=0; i<dimensionIndices.length && i<positions.size(); i++)
+			{
+				int dimensionIndex = dimensionIndices[i];
+				RegistryKey<World> dimID = dimensionIndex >= 0 && dimensionIndex < dimensions.size() ? dimensions.get(dimensionIndex) : null;
+				if (dimID != null)
+				{
+					long[] packedPositions = ((LongArrayNBT)positions.get(i)).getAsLongArray();
+					subMap.put(dimID, new LongOpenHashSet(packedPositions));
+				}
+			}
+			map.put(playerID, subMap);
+		}
+		return map;
+	}
+}
@@ -7,6 +7,30 @@ import net.minecraftforge.common.ForgeConfigSpec;
 public class Config
 {
 	public ConfigValueListener<Integer> permission_level_for_seeing_clockout_owners;
+	public ConfigValueListener<Integer> permission_level_for_stats;
+	public ConfigValueListener<Integer> permission_level_for_managing_groups;
+	public ConfigValueListener<Integer> permission_level_for_queries;
+	public ConfigValueListener<Integer> permission_level_for_exceeding_quotas;
+	public ConfigValueListener<Integer> max_clockouts_per_owner;
+	public ConfigValueListener<Integer> max_clockouts_per_owner_per_dimension;
+	public ConfigValueListener<Boolean> defer_unloaded_chunk_updates;
+	public ConfigValueListener<Integer> max_clockout_updates_per_tick;
+	public ConfigValueListener<Integer> owner_name_cache_size;
+	public ConfigValueListener<Integer> owner_name_cache_seconds;
+	public ConfigValueListener<Integer> query_snapshot_interval;
+	public ConfigValueListener<Integer> metrics_log_interval;
+	public ConfigValueListener<Integer> max_clockout_update_microseconds_per_tick;
+	public ConfigValueListener<Boolean> emit_light;
+	public ConfigValueListener<Integer> sweeper_entries_per_tick;
+	public ConfigValueListener<Boolean> journaled_persistence;
+	public ConfigValueListener<Integer> journal_compaction_threshold;
+	public ConfigValueListener<Boolean> background_saving;
+	public ConfigValueListener<Integer> background_save_shutdown_timeout;
+	public ConfigValueListener<String> storage_engine;
+	public ConfigValueListener<String> presence_provider;
+	public ConfigValueListener<String> presence_file;
+	public ConfigValueListener<Integer> presence_file_check_interval;
+	public ConfigValueListener<Integer> logout_grace_period;
 	
 	public Config(ForgeConfigSpec.Builder builder, ConfigHelper.Subscriber subscriber)
 	{
@@ -15,6 +39,114 @@ public class Config
 			.comment("Minimum permission level for seeing who owns somebody else's clockout block")
 			.translation("clockout.permission_level_for_seeing_clockout_owners")
 			.define("permission_level_for_seeing_clockout_owners", 1));
+		this.permission_level_for_stats = subscriber.subscribe(builder
+			.comment("Minimum permission level for using /clockout stats")
+			.translation("clockout.permission_level_for_stats")
+			.define("permission_level_for_stats", 2));
+		this.permission_level_for_managing_groups = subscriber.subscribe(builder
+			.comment("Minimum permission level for creating and deleting clockout groups and changing their members")
+			.translation("clockout.permission_level_for_managing_groups")
+			.define("permission_level_for_managing_groups", 2));
+		this.permission_level_for_queries = subscriber.subscribe(builder
+			.comment("Minimum permission level for using /clockout near, /clockout list, /clockout count and /clockout quota")
+			.translation("clockout.permission_level_for_queries")
+			.define("permission_level_for_queries", 2));
+		this.permission_level_for_exceeding_quotas = subscriber.subscribe(builder
+			.comment("Minimum permission level for placing clockout blocks past the quotas")
+			.translation("clockout.permission_level_for_exceeding_quotas")
+			.define("permission_level_for_exceeding_quotas", 2));
+		builder.pop();
+		
+		builder.push("Quotas");
+		this.max_clockouts_per_owner = subscriber.subscribe(builder
+			.comment("Maximum number of clockout blocks one owner can have in all dimensions together, or 0 for no limit. Blocks placed for a group count toward the group's quota. Existing blocks are kept if the quota is lowered")
+			.translation("clockout.max_clockouts_per_owner")
+			.defineInRange("max_clockouts_per_owner", 0, 0, Integer.MAX_VALUE));
+		this.max_clockouts_per_owner_per_dimension = subscriber.subscribe(builder
+			.comment("Maximum number of clockout blocks one owner can have in each dimension, or 0 for no limit")
+			.translation("clockout.max_clockouts_per_owner_per_dimension")
+			.defineInRange("max_clockouts_per_owner_per_dimension", 0, 0, Integer.MAX_VALUE));
+		builder.pop();
+		
+		builder.push("Performance");
+		this.defer_unloaded_chunk_updates = subscriber.subscribe(builder
+			.comment("If true, clockout blocks in unloaded chunks are updated when their chunk next loads instead of loading the chunk when their owner logs in or out")
+			.translation("clockout.defer_unloaded_chunk_updates")
+			.define("defer_unloaded_chunk_updates", true));
+		this.max_clockout_updates_per_tick = subscriber.subscribe(builder
+			.comment("Maximum number of clockout blocks to update per server tick after players log in or out, or 0 for no limit. Remaining updates carry over to the next tick")
+			.translation("clockout.max_clockout_updates_per_tick")
+			.defineInRange("max_clockout_updates_per_tick", 0, 0, Integer.MAX_VALUE));
+		this.max_clockout_update_microseconds_per_tick = subscriber.subscribe(builder
+			.comment("Maximum time in microseconds to spend updating clockout blocks per server tick after players log in or out, or 0 for no limit. Remaining updates carry over to the next tick")
+			.translation("clockout.max_clockout_update_microseconds_per_tick")
+			.defineInRange("max_clockout_update_microseconds_per_tick", 5000, 0, Integer.MAX_VALUE));
+		this.emit_light = subscriber.subscribe(builder
+			.comment("If true, powered clockout blocks give off light. If false, they don't, and turning them on or off doesn't cause any lighting updates. Existing clockout blocks are changed the next time they turn on or off")
+			.translation("clockout.emit_light")
+			.define("emit_light", true));
+		this.sweeper_entries_per_tick = subscriber.subscribe(builder
+			.comment("Number of owned positions to check per server tick for clockout blocks that were removed without clockout noticing, or 0 to never check. Only positions in loaded chunks are checked")
+			.translation("clockout.sweeper_entries_per_tick")
+			.defineInRange("sweeper_entries_per_tick", 64, 0, Integer.MAX_VALUE));
+		this.owner_name_cache_size = subscriber.subscribe(builder
+			.comment("Maximum number of clockout owners' names to remember for showing who owns a clockout block")
+			.translation("clockout.owner_name_cache_size")
+			.defineInRange("owner_name_cache_size", 1000, 1, Integer.MAX_VALUE));
+		this.owner_name_cache_seconds = subscriber.subscribe(builder
+			.comment("Time in seconds to remember a clockout owner's name before looking it up again")
+			.translation("clockout.owner_name_cache_seconds")
+			.defineInRange("owner_name_cache_seconds", 600, 0, Integer.MAX_VALUE));
+		this.query_snapshot_interval = subscriber.subscribe(builder
+			.comment("Minimum number of ticks between updates of the ownership data that other mods can query from their own threads")
+			.translation("clockout.query_snapshot_interval")
+			.defineInRange("query_snapshot_interval", 20, 1, Integer.MAX_VALUE));
+		this.metrics_log_interval = subscriber.subscribe(builder
+			.comment("Number of ticks between logging clockout's performance stats at debug level, or 0 to never log them")
+			.translation("clockout.metrics_log_interval")
+			.defineInRange("metrics_log_interval", 6000, 0, Integer.MAX_VALUE));
+		builder.pop();
+		
+		builder.push("Persistence");
+		this.journaled_persistence = subscriber.subscribe(builder
+			.comment("If true, clockout block placements and removals are appended to a journal file instead of rewriting all clockout data on the next save. Takes effect when the server starts")
+			.translation("clockout.journaled_persistence")
+			.define("journaled_persistence", false));
+		this.journal_compaction_threshold = subscriber.subscribe(builder
+			.comment("Number of journaled changes after which all clockout data is rewritten on the next save and the journal is started over")
+			.translation("clockout.journal_compaction_threshold")
+			.defineInRange("journal_compaction_threshold", 10000, 1, Integer.MAX_VALUE));
+		this.background_saving = subscriber.subscribe(builder
+			.comment("If true, clockout data is encoded and written to disk on a background thread instead of the server thread")
+			.translation("clockout.background_saving")
+			.define("background_saving", true));
+		this.background_save_shutdown_timeout = subscriber.subscribe(builder
+			.comment("Maximum time in seconds to wait for background saves of clockout data to finish when the server stops")
+			.translation("clockout.background_save_shutdown_timeout")
+			.defineInRange("background_save_shutdown_timeout", 60, 0, Integer.MAX_VALUE));
+		this.storage_engine = subscriber.subscribe(builder
+			.comment("How clockout ownership is kept in memory. \"hash\" keeps a hash set of positions per owner. \"dense\" keeps an array of positions per owner, which makes placing and removing blocks and updating blocks when owners log in or out faster. Other mods can add more. Saved data is the same either way. Takes effect when the server starts")
+			.translation("clockout.storage_engine")
+			.define("storage_engine", OwnershipStorageEngines.HASH_NAME));
+		builder.pop();
+		
+		builder.push("Presence");
+		this.presence_provider = subscriber.subscribe(builder
+			.comment("Which players count as online for powering their clockout blocks. \"vanilla\" uses the players logged into this server, \"file\" uses the players listed in presence_file. Other mods can add more. Takes effect when the server starts")
+			.translation("clockout.presence_provider")
+			.define("presence_provider", PresenceProviders.VANILLA_NAME));
+		this.presence_file = subscriber.subscribe(builder
+			.comment("File listing the UUIDs of the players who are online, one per line, used by the file presence provider. Relative to the world folder. Takes effect when the server starts")
+			.translation("clockout.presence_file")
+			.define("presence_file", "clockout_presence.txt"));
+		this.presence_file_check_interval = subscriber.subscribe(builder
+			.comment("Number of ticks between checks of whether presence_file has changed")
+			.translation("clockout.presence_file_check_interval")
+			.defineInRange("presence_file_check_interval", 20, 1, Integer.MAX_VALUE));
+		this.logout_grace_period = subscriber.subscribe(builder
+			.comment("Time in seconds to keep a player's clockout blocks powered after they go offline. If they come back within this time, their blocks aren't updated at all. 0 turns their blocks off right away")
+			.translation("clockout.logout_grace_period")
+			.defineInRange("logout_grace_period", 0, 0, 86400));
 		builder.pop();
 	}
 }
@@ -0,0 +1,116 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+
+import com.mojang.datafixers.util.Pair;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.LongArrayNBT;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+
+/**
+ * Keeps track of clockout blocks whose power state couldn't be updated because their chunk wasn't loaded,
+ * so that they can be reconciled when the chunk loads instead of loading the chunk on demand.
+ * Everything other than onChunkLoaded must be called on the server thread.
+ */
+public class DeferredChunkUpdates
+{
+	// map of dimension IDs to map of packed chunk positions to the packed positions in that chunk that need reconciling
+	private final Map<RegistryKey<World>, Long2ObjectMap<LongSet>> pending = new HashMap<>();
+	
+	// chunks that have loaded since we last checked, chunk events aren't guaranteed to be fired on the server thread
+	private final Queue<Pair<RegistryKey<World>, Long>> loadedChunks = new ConcurrentLinkedQueue<>();
+	
+	// the keys of the pending chunks, so that chunk load events can skip the queue for chunks with nothing waiting
+	private final ChunkKeySet pendingChunks = new ChunkKeySet();
+	
+	public void defer(RegistryKey<World> dimID, long packedPos)
+	{
+		long chunkPos = ChunkPos.asLong(BlockPos.unpackX(packedPos) >> 4, BlockPos.unpackZ(packedPos) >> 4);
+		this.pending.computeIfAbsent(dimID, key -> new Long2ObjectOpenHashMap<>())
+			.computeIfAbsent(chunkPos, key -> new LongOpenHashSet())
+			.add(packedPos);
+		this.pendingChunks.add(dimID, chunkPos);
+	}
+	
+	// safe to call from any thread
+	public void onChunkLoaded(RegistryKey<World> dimID, ChunkPos chunkPos)
+	{
+		if (this.pendingChunks.contains(dimID, chunkPos.asLong()))
+		{
+			this.loadedChunks.add(Pair.of(dimID, chunkPos.asLong()));
+		}
+	}
+	
+	/**
+	 * Removes the pending positions for every chunk that has loaded since the last call and hands them to the consumer.
+	 * The consumer is responsible for deferring them again if their chunk turned out to be unloaded by now.
+	 * @param consumer Consumer of dimension IDs and the packed block positions to be reconciled in that dimension
+	 */
+	public void drainLoadedChunks(BiConsumer<RegistryKey<World>, long[]> consumer)
+	{
+		Pair<RegistryKey<World>, Long> loadedChunk;
+		while ((loadedChunk = this.loadedChunks.poll()) != null)
+		{
+			RegistryKey<World> dimID = loadedChunk.getFirst();
+			Long2ObjectMap<LongSet> chunks = this.pending.get(dimID);
+			if (chunks != null)
+			{
+				long chunkPos = loadedChunk.getSecond().longValue();
+				LongSet positions = chunks.remove(chunkPos);
+				this.pendingChunks.remove(dimID, chunkPos);
+				if (chunks.isEmpty())
+				{
+					this.pending.remove(dimID);
+				}
+				if (positions != null)
+				{
+					consumer.accept(dimID, positions.toLongArray());
+				}
+			}
+		}
+	}
+	
+	public CompoundNBT write(CompoundNBT nbt)
+	{
+		this.pending.forEach((dimID, chunks) ->
+		{
+			LongSet positions = new LongOpenHashSet();
+			chunks.values().forEach(positions::addAll);
+			nbt.put(dimID.getLocation().toString(), new LongArrayNBT(positions.toLongArray()));
+		});
+		return nbt;
+	}
+	
+	public void read(CompoundNBT nbt)
+	{
+		this.pending.clear();
+		this.loadedChunks.clear();
+		this.pendingChunks.clear();
+		for (String key : nbt.keySet())
+		{
+			ResourceLocation location = ResourceLocation.tryCreate(key);
+			if (location != null)
+			{
+				RegistryKey<World> dimID = RegistryKey.getOrCreateKey(Registry.WORLD_KEY, location);
+				for (long packedPos : nbt.getLongArray(key))
+				{
+					this.defer(dimID, packedPos);
+				}
+			}
+		}
+	}
+}
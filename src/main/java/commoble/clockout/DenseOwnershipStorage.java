@@ -0,0 +1,264 @@
+package commoble.clockout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.AbstractLongSet;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArraySet;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Storage engine that keeps each owner's positions in an array instead of a hash set, and numbers owners
+ * so that one hash map from positions to slots in those arrays is both the reverse index and the way to find a position in its array.
+ * Placing or removing a block costs one hash map update instead of two, positions are removed by moving the last one in
+ * the array into their slot, and going through an owner's positions when they log in or out reads one array front to back.
+ */
+public class DenseOwnershipStorage implements OwnershipStorage
+{
+	private static final long NO_SLOT = -1L;
+
+	// owner numbers of owners with at least one position, numbers are reused after their owner has no positions left
+	private final Object2IntMap<UUID> ownerNumbers = new Object2IntOpenHashMap<>();
+	// owners and their positions by owner number, null for numbers that aren't in use
+	private final List<UUID> owners = new ArrayList<>();
+	private final List<LongArrayList> positionsByOwner = new ArrayList<>();
+	private final IntArrayList freeNumbers = new IntArrayList();
+
+	// packed positions to their owner's number in the high 32 bits and their index in that owner's array in the low 32 bits
+	private final Long2LongMap slots = new Long2LongOpenHashMap();
+
+	public DenseOwnershipStorage()
+	{
+		this.ownerNumbers.defaultReturnValue(-1);
+		this.slots.defaultReturnValue(NO_SLOT);
+	}
+
+	private static long getSlot(int ownerNumber, int index)
+	{
+		return ((long)ownerNumber << 32) | index;
+	}
+
+	private static int getOwnerNumber(long slot)
+	{
+		return (int)(slot >>> 32);
+	}
+
+	private static int getIndex(long slot)
+	{
+		return (int)slot;
+	}
+
+	@Override
+	public @Nullable UUID getOwner(long packedPos)
+	{
+		long slot = this.slots.get(packedPos);
+		return slot == NO_SLOT ? null : this.owners.get(getOwnerNumber(slot));
+	}
+
+	@Override
+	public LongSet getPositions(@Nonnull UUID ownerID)
+	{
+		int ownerNumber = this.ownerNumbers.getInt(ownerID);
+		return ownerNumber < 0 ? LongSets.EMPTY_SET : new OwnerPositions(ownerNumber);
+	}
+
+	@Override
+	public Set<UUID> getOwners()
+	{
+		return this.ownerNumbers.keySet();
+	}
+
+	@Override
+	public int getBlockCount()
+	{
+		return this.slots.size();
+	}
+
+	@Override
+	public int getBlockCount(@Nonnull UUID ownerID)
+	{
+		int ownerNumber = this.ownerNumbers.getInt(ownerID);
+		return ownerNumber < 0 ? 0 : this.positionsByOwner.get(ownerNumber).size();
+	}
+
+	@Override
+	public @Nullable UUID put(@Nonnull UUID ownerID, long packedPos)
+	{
+		long slot = this.slots.get(packedPos);
+		UUID previousOwner = null;
+		if (slot != NO_SLOT)
+		{
+			previousOwner = this.owners.get(getOwnerNumber(slot));
+			if (previousOwner.equals(ownerID))
+			{
+				return previousOwner;
+			}
+			this.removeFromOwner(getOwnerNumber(slot), getIndex(slot));
+		}
+		int ownerNumber = this.getOrCreateOwnerNumber(ownerID);
+		LongArrayList positions = this.positionsByOwner.get(ownerNumber);
+		positions.add(packedPos);
+		this.slots.put(packedPos, getSlot(ownerNumber, positions.size() - 1));
+		return previousOwner;
+	}
+
+	// if the other owner has no positions here yet, the first owner's number is handed over and no positions are moved at all
+	@Override
+	public LongSet transfer(@Nonnull UUID fromOwnerID, @Nonnull UUID toOwnerID)
+	{
+		int fromNumber = this.ownerNumbers.getInt(fromOwnerID);
+		if (fromNumber < 0 || fromOwnerID.equals(toOwnerID))
+		{
+			return LongSets.EMPTY_SET;
+		}
+		LongArrayList positions = this.positionsByOwner.get(fromNumber);
+		// wraps the array without copying it, the set is only iterated
+		LongSet transferred = new LongArraySet(positions.elements(), positions.size());
+		int toNumber = this.ownerNumbers.getInt(toOwnerID);
+		if (toNumber < 0)
+		{
+			this.ownerNumbers.removeInt(fromOwnerID);
+			this.ownerNumbers.put(toOwnerID, fromNumber);
+			this.owners.set(fromNumber, toOwnerID);
+			return transferred;
+		}
+		LongArrayList toPositions = this.positionsByOwner.get(toNumber);
+		for (int i=0; i<positions.size(); i++)
+		{
+			long packedPos = positions.getLong(i);
+			toPositions.add(packedPos);
+			this.slots.put(packedPos, getSlot(toNumber, toPositions.size() - 1));
+		}
+		this.releaseOwnerNumber(fromNumber);
+		return transferred;
+	}
+
+	@Override
+	public @Nullable UUID remove(long packedPos)
+	{
+		long slot = this.slots.remove(packedPos);
+		if (slot == NO_SLOT)
+		{
+			return null;
+		}
+		UUID ownerID = this.owners.get(getOwnerNumber(slot));
+		this.removeFromOwner(getOwnerNumber(slot), getIndex(slot));
+		return ownerID;
+	}
+
+	private int getOrCreateOwnerNumber(UUID ownerID)
+	{
+		int ownerNumber = this.ownerNumbers.getInt(ownerID);
+		if (ownerNumber >= 0)
+		{
+			return ownerNumber;
+		}
+		if (this.freeNumbers.isEmpty())
+		{
+			ownerNumber = this.owners.size();
+			this.owners.add(ownerID);
+			this.positionsByOwner.add(new LongArrayList());
+		}
+		else
+		{
+			ownerNumber = this.freeNumbers.popInt();
+			this.owners.set(ownerNumber, ownerID);
+			this.positionsByOwner.set(ownerNumber, new LongArrayList());
+		}
+		this.ownerNumbers.put(ownerID, ownerNumber);
+		return ownerNumber;
+	}
+
+	private void releaseOwnerNumber(int ownerNumber)
+	{
+		this.ownerNumbers.removeInt(this.owners.get(ownerNumber));
+		this.owners.set(ownerNumber, null);
+		this.positionsByOwner.set(ownerNumber, null);
+		this.freeNumbers.add(ownerNumber);
+	}
+
+	// removes the position at the index from the owner's array by moving the last position into its slot
+	// the removed position's own slot must be removed or replaced by the caller
+	private void removeFromOwner(int ownerNumber, int index)
+	{
+		LongArrayList positions = this.positionsByOwner.get(ownerNumber);
+		int lastIndex = positions.size() - 1;
+		long lastPos = positions.removeLong(lastIndex);
+		if (index != lastIndex)
+		{
+			positions.set(index, lastPos);
+			this.slots.put(lastPos, getSlot(ownerNumber, index));
+		}
+		if (positions.isEmpty())
+		{
+			this.releaseOwnerNumber(ownerNumber);
+		}
+	}
+
+	// live view of one owner's array
+	private class OwnerPositions extends AbstractLongSet
+	{
+		private final int ownerNumber;
+
+		private OwnerPositions(int ownerNumber)
+		{
+			this.ownerNumber = ownerNumber;
+		}
+
+		private LongArrayList getArray()
+		{
+			LongArrayList positions = DenseOwnershipStorage.this.positionsByOwner.get(this.ownerNumber);
+			return positions == null ? new LongArrayList() : positions;
+		}
+
+		@Override
+		public boolean contains(long packedPos)
+		{
+			long slot = DenseOwnershipStorage.this.slots.get(packedPos);
+			return slot != NO_SLOT && getOwnerNumber(slot) == this.ownerNumber;
+		}
+
+		@Override
+		public int size()
+		{
+			return this.getArray().size();
+		}
+
+		@Override
+		public LongIterator iterator()
+		{
+			return this.getArray().iterator();
+		}
+
+		@Override
+		public long[] toLongArray()
+		{
+			return this.getArray().toLongArray();
+		}
+
+		@Override
+		public boolean add(long packedPos)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean remove(long packedPos)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,455 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.LongPredicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectAVLTreeMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectSortedMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.LongArrayNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * The clockout blocks in one dimension, indexed by owner, by position, and by chunk.
+ * Each dimension's blocks are kept, saved and loaded separately from other dimensions'.
+ * Owners are kept by the dimension's storage engine, see OwnershipStorage, and the chunk index and power states are kept here.
+ * Must be used on the server thread, other than the set of owned chunks it's given.
+ */
+public class DimensionOwnership
+{
+	public static final String POWERED_OWNERS = "powered_owners";
+	public static final String OTHER_STATE = "other_state";
+	public static final String UNRECORDED = "unrecorded";
+
+	// owners of the positions in this dimension, packed by BlockPos::toLong
+	private final OwnershipStorage storage;
+
+	// spatial index of packed chunk positions (by ChunkPos::asLong) to the positions in that chunk, kept in step with the storage's positions
+	// lets us find the blocks in an area by looking at the chunks that overlap it instead of at every block
+	// sorted by chunk key, so that the stale entry sweeper can walk it a chunk at a time and pick up where it left off
+	private final Long2ObjectSortedMap<LongSet> positionsByChunk = new Long2ObjectAVLTreeMap<>();
+
+	// the keys of positionsByChunk, in a set that can be read from any thread so that chunk load events can skip chunks without blocks
+	private final LongSet ownedChunks;
+
+	// each owner's positions split by the power state the block was last set to or seen in, kept in step with the storage's positions,
+	// so that fan-out only has to visit the blocks that aren't already in the right state, without reading the world.
+	// Checked against the world whenever the block's chunk loads
+	private final Map<UUID, RecordedStates> recordedStatesByOwner = new HashMap<>();
+
+	public DimensionOwnership(OwnershipStorage storage, LongSet ownedChunks)
+	{
+		this.storage = storage;
+		this.ownedChunks = ownedChunks;
+	}
+
+	// copies the positions and recorded power states into a new storage engine
+	public DimensionOwnership copyTo(OwnershipStorage storage)
+	{
+		DimensionOwnership copy = new DimensionOwnership(storage, this.ownedChunks);
+		for (UUID ownerID : this.storage.getOwners())
+		{
+			copy.putAll(ownerID, this.storage.getPositions(ownerID));
+		}
+		this.recordedStatesByOwner.forEach((ownerID, states) -> copy.recordedStatesByOwner.put(ownerID, states.copy()));
+		return copy;
+	}
+
+	public @Nullable UUID getOwner(long packedPos)
+	{
+		return this.storage.getOwner(packedPos);
+	}
+
+	// returns a live view of the positions, don't hold onto it
+	public LongSet getPositions(@Nonnull UUID ownerID)
+	{
+		return this.storage.getPositions(ownerID);
+	}
+
+	public Set<UUID> getOwners()
+	{
+		return this.storage.getOwners();
+	}
+
+	public int getBlockCount()
+	{
+		return this.storage.getBlockCount();
+	}
+
+	public int getBlockCount(@Nonnull UUID ownerID)
+	{
+		return this.storage.getBlockCount(ownerID);
+	}
+
+	public boolean isEmpty()
+	{
+		return this.storage.getBlockCount() == 0;
+	}
+
+	/**
+	 * Finds the first chunk with owned positions whose key is at least the given key, in ChunkPos::asLong order,
+	 * so that the chunks can be walked in order while blocks are placed and removed in between.
+	 * @return The chunk's key, or empty if there are no more chunks
+	 */
+	public OptionalLong getNextChunk(long fromChunkKey)
+	{
+		Long2ObjectSortedMap<LongSet> chunks = this.positionsByChunk.tailMap(fromChunkKey);
+		return chunks.isEmpty() ? OptionalLong.empty() : OptionalLong.of(chunks.firstLongKey());
+	}
+
+	// returns a live view of the owned positions in the chunk, don't hold onto it
+	public LongSet getPositionsInChunk(long chunkKey)
+	{
+		LongSet positions = this.positionsByChunk.get(chunkKey);
+		return positions == null ? LongSets.EMPTY_SET : positions;
+	}
+
+	// returns true if the block's power state is known to be the given state, or will be once scheduled changes are applied
+	public boolean isRecordedAs(long packedPos, boolean powered)
+	{
+		UUID ownerID = this.storage.getOwner(packedPos);
+		RecordedStates states = ownerID == null ? null : this.recordedStatesByOwner.get(ownerID);
+		return states != null && states.get(powered).contains(packedPos);
+	}
+
+	public void recordPowerState(long packedPos, boolean powered)
+	{
+		UUID ownerID = this.storage.getOwner(packedPos);
+		RecordedStates states = ownerID == null ? null : this.recordedStatesByOwner.get(ownerID);
+		if (states != null)
+		{
+			states.remove(packedPos);
+			states.get(powered).add(packedPos);
+		}
+	}
+
+	/**
+	 * Finds the owner's positions whose blocks aren't known to be in the given state, i.e. the ones that are recorded in the other state
+	 * or not recorded at all. Only those positions are looked at, so this doesn't get slower with the number of blocks that are
+	 * already in the right state.
+	 * @return A copy of the positions, so that their power states can be recorded while going through them
+	 */
+	public long[] getPositionsNotRecordedAs(@Nonnull UUID ownerID, boolean powered)
+	{
+		RecordedStates states = this.recordedStatesByOwner.get(ownerID);
+		if (states == null)
+		{
+			return new long[0];
+		}
+		LongSet otherState = states.get(!powered);
+		long[] positions = new long[otherState.size() + states.unrecorded.size()];
+		otherState.toArray(positions);
+		LongIterator iterator = states.unrecorded.iterator();
+		for (int i=otherState.size(); i<positions.length; i++)
+		{
+			positions[i] = iterator.nextLong();
+		}
+		return positions;
+	}
+
+	public int getRecordedPowerStateCount()
+	{
+		int count = 0;
+		for (RecordedStates states : this.recordedStatesByOwner.values())
+		{
+			count += states.powered.size() + states.unpowered.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the recorded power states, so that they survive a restart instead of every block being visited by the first fan-out after it.
+	 * Most of an owner's blocks are in the same state, so only that state is written for each owner, along with the positions that are
+	 * recorded in the other state or not recorded at all, which keeps this small no matter how many blocks there are.
+	 */
+	public CompoundNBT writePowerStates(CompoundNBT nbt)
+	{
+		LongList poweredOwners = new LongArrayList();
+		LongList otherState = new LongArrayList();
+		LongList unrecorded = new LongArrayList();
+		this.recordedStatesByOwner.forEach((ownerID, states) ->
+		{
+			boolean powered = states.powered.size() > states.unpowered.size();
+			if (powered)
+			{
+				poweredOwners.add(ownerID.getMostSignificantBits());
+				poweredOwners.add(ownerID.getLeastSignificantBits());
+			}
+			otherState.addAll(states.get(!powered));
+			unrecorded.addAll(states.unrecorded);
+		});
+		nbt.put(POWERED_OWNERS, new LongArrayNBT(poweredOwners.toLongArray()));
+		nbt.put(OTHER_STATE, new LongArrayNBT(otherState.toLongArray()));
+		nbt.put(UNRECORDED, new LongArrayNBT(unrecorded.toLongArray()));
+		return nbt;
+	}
+
+	// reads the power states written by writePowerStates, should be called after the positions are loaded and before anything is recorded
+	public void readPowerStates(CompoundNBT nbt)
+	{
+		Set<UUID> poweredOwners = new HashSet<>();
+		long[] ownerBits = nbt.getLongArray(POWERED_OWNERS);
+		for (int i=0; i+1<ownerBits.length; i+=2)
+		{
+			poweredOwners.add(new UUID(ownerBits[i], ownerBits[i+1]));
+		}
+		this.recordedStatesByOwner.forEach((ownerID, states) ->
+		{
+			states.get(poweredOwners.contains(ownerID)).addAll(states.unrecorded);
+			states.unrecorded.clear();
+		});
+		for (long packedPos : nbt.getLongArray(OTHER_STATE))
+		{
+			UUID ownerID = this.storage.getOwner(packedPos);
+			if (ownerID != null)
+			{
+				this.recordPowerState(packedPos, !poweredOwners.contains(ownerID));
+			}
+		}
+		for (long packedPos : nbt.getLongArray(UNRECORDED))
+		{
+			UUID ownerID = this.storage.getOwner(packedPos);
+			if (ownerID != null)
+			{
+				RecordedStates states = this.getRecordedStates(ownerID);
+				states.remove(packedPos);
+				states.unrecorded.add(packedPos);
+			}
+		}
+	}
+
+	/**
+	 * Visits the owned positions within the given distance of the center until the visitor returns false.
+	 * Chunks are visited in square rings around the center's chunk, so positions are visited roughly nearest first.
+	 * Only the index is read, so this never loads chunks or reads the world.
+	 */
+	public void forEachNear(BlockPos center, int radius, LongPredicate visitor)
+	{
+		int centerChunkX = center.getX() >> 4;
+		int centerChunkZ = center.getZ() >> 4;
+		int chunkRadius = (radius >> 4) + 1;
+		long radiusSquared = (long)radius * radius;
+		for (int ring=0; ring<=chunkRadius; ring++)
+		{
+			for (int dx=-ring; dx<=ring; dx++)
+			{
+				// the first and last columns of the ring are whole, the others only have their first and last chunks
+				int dzStep = dx == -ring || dx == ring ? 1 : 2*ring;
+				for (int dz=-ring; dz<=ring; dz+=dzStep)
+				{
+					LongSet positions = this.positionsByChunk.get(ChunkPos.asLong(centerChunkX + dx, centerChunkZ + dz));
+					if (positions != null && !visitChunk(center, radiusSquared, positions, visitor))
+					{
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean visitChunk(BlockPos center, long radiusSquared, LongSet positions, LongPredicate visitor)
+	{
+		LongIterator iterator = positions.iterator();
+		while (iterator.hasNext())
+		{
+			long packedPos = iterator.nextLong();
+			long x = BlockPos.unpackX(packedPos) - center.getX();
+			long y = BlockPos.unpackY(packedPos) - center.getY();
+			long z = BlockPos.unpackZ(packedPos) - center.getZ();
+			if (x*x + y*y + z*z <= radiusSquared && !visitor.test(packedPos))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gives the position to the owner, taking it away from its previous owner if it had one
+	 * @return The previous owner, or null if the position wasn't owned
+	 */
+	public @Nullable UUID put(@Nonnull UUID ownerID, long packedPos)
+	{
+		UUID previousOwner = this.storage.put(ownerID, packedPos);
+		if (previousOwner == null)
+		{
+			this.addToChunk(packedPos);
+			this.getRecordedStates(ownerID).unrecorded.add(packedPos);
+		}
+		else if (!previousOwner.equals(ownerID))
+		{
+			// the block itself hasn't changed, so its recorded state goes with it to the new owner
+			Boolean powered = this.removeRecordedState(previousOwner, packedPos);
+			RecordedStates states = this.getRecordedStates(ownerID);
+			(powered == null ? states.unrecorded : states.get(powered)).add(packedPos);
+		}
+		return previousOwner;
+	}
+
+	public void putAll(@Nonnull UUID ownerID, LongSet positions)
+	{
+		LongIterator iterator = positions.iterator();
+		while (iterator.hasNext())
+		{
+			this.put(ownerID, iterator.nextLong());
+		}
+	}
+
+	/**
+	 * Gives all of one owner's positions to another owner at once
+	 * @return The positions that were given, don't hold onto it
+	 */
+	public LongSet transfer(@Nonnull UUID fromOwnerID, @Nonnull UUID toOwnerID)
+	{
+		LongSet positions = this.storage.transfer(fromOwnerID, toOwnerID);
+		if (!positions.isEmpty())
+		{
+			RecordedStates fromStates = this.recordedStatesByOwner.remove(fromOwnerID);
+			RecordedStates toStates = this.recordedStatesByOwner.get(toOwnerID);
+			if (toStates == null)
+			{
+				this.recordedStatesByOwner.put(toOwnerID, fromStates);
+			}
+			else
+			{
+				toStates.powered.addAll(fromStates.powered);
+				toStates.unpowered.addAll(fromStates.unpowered);
+				toStates.unrecorded.addAll(fromStates.unrecorded);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * @return The owner the position was taken away from, or null if the position wasn't owned
+	 */
+	public @Nullable UUID remove(long packedPos)
+	{
+		UUID ownerID = this.storage.remove(packedPos);
+		if (ownerID != null)
+		{
+			this.removeFromChunk(packedPos);
+			this.removeRecordedState(ownerID, packedPos);
+		}
+		return ownerID;
+	}
+
+	private RecordedStates getRecordedStates(UUID ownerID)
+	{
+		return this.recordedStatesByOwner.computeIfAbsent(ownerID, id -> new RecordedStates());
+	}
+
+	// returns the state the position was recorded as, or null if it wasn't recorded
+	private @Nullable Boolean removeRecordedState(UUID ownerID, long packedPos)
+	{
+		RecordedStates states = this.recordedStatesByOwner.get(ownerID);
+		if (states == null)
+		{
+			return null;
+		}
+		Boolean powered = states.remove(packedPos);
+		if (states.isEmpty())
+		{
+			this.recordedStatesByOwner.remove(ownerID);
+		}
+		return powered;
+	}
+
+	private static long getChunkKey(long packedPos)
+	{
+		return ChunkPos.asLong(BlockPos.unpackX(packedPos) >> 4, BlockPos.unpackZ(packedPos) >> 4);
+	}
+
+	private void addToChunk(long packedPos)
+	{
+		long chunkKey = getChunkKey(packedPos);
+		LongSet positions = this.positionsByChunk.get(chunkKey);
+		if (positions == null)
+		{
+			positions = new LongOpenHashSet();
+			this.positionsByChunk.put(chunkKey, positions);
+			this.ownedChunks.add(chunkKey);
+		}
+		positions.add(packedPos);
+	}
+
+	private void removeFromChunk(long packedPos)
+	{
+		long chunkKey = getChunkKey(packedPos);
+		LongSet positions = this.positionsByChunk.get(chunkKey);
+		if (positions != null)
+		{
+			positions.remove(packedPos);
+			if (positions.isEmpty())
+			{
+				this.positionsByChunk.remove(chunkKey);
+				this.ownedChunks.remove(chunkKey);
+			}
+		}
+	}
+
+	// one owner's positions by recorded power state, each of the owner's positions is in exactly one of these
+	// positions without a recorded state haven't been powered or seen since they were placed
+	private static class RecordedStates
+	{
+		private final LongSet powered;
+		private final LongSet unpowered;
+		private final LongSet unrecorded;
+
+		private RecordedStates()
+		{
+			this(new LongOpenHashSet(), new LongOpenHashSet(), new LongOpenHashSet());
+		}
+
+		private RecordedStates(LongSet powered, LongSet unpowered, LongSet unrecorded)
+		{
+			this.powered = powered;
+			this.unpowered = unpowered;
+			this.unrecorded = unrecorded;
+		}
+
+		private LongSet get(boolean powered)
+		{
+			return powered ? this.powered : this.unpowered;
+		}
+
+		private @Nullable Boolean remove(long packedPos)
+		{
+			if (this.powered.remove(packedPos))
+			{
+				return Boolean.TRUE;
+			}
+			if (this.unpowered.remove(packedPos))
+			{
+				return Boolean.FALSE;
+			}
+			this.unrecorded.remove(packedPos);
+			return null;
+		}
+
+		private boolean isEmpty()
+		{
+			return this.powered.isEmpty() && this.unpowered.isEmpty() && this.unrecorded.isEmpty();
+		}
+
+		private RecordedStates copy()
+		{
+			return new RecordedStates(new LongOpenHashSet(this.powered), new LongOpenHashSet(this.unpowered), new LongOpenHashSet(this.unrecorded));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package commoble.clockout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Sets;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.storage.FolderName;
+
+/**
+ * Presence provider that reads the players who are online from a file, e.g. one written by a proxy
+ * that knows who's online anywhere on the network. The file has one player UUID per line,
+ * and blank lines and lines starting with # are ignored.
+ * Whenever the file changes, everybody who was added to it and everybody who was removed from it are delivered in one delta.
+ */
+public class FilePresenceProvider implements PresenceProvider
+{
+	private @Nullable Path path = null;
+	private @Nullable Consumer<PresenceDelta> sink = null;
+	private @Nullable FileTime lastModified = null;
+	private Set<UUID> online = new HashSet<>();
+	private int ticksSinceCheck = 0;
+
+	@Override
+	public void start(MinecraftServer server, Consumer<PresenceDelta> sink)
+	{
+		// the file is relative to the world folder unless it's absolute
+		this.path = server.func_240776_a_(FolderName.DOT).resolve(Clockout.config.presence_file.get());
+		this.sink = sink;
+		this.check();
+	}
+
+	@Override
+	public void tick(MinecraftServer server)
+	{
+		if (++this.ticksSinceCheck >= Clockout.config.presence_file_check_interval.get())
+		{
+			this.ticksSinceCheck = 0;
+			this.check();
+		}
+	}
+
+	@Override
+	public void stop(MinecraftServer server)
+	{
+		this.sink = null;
+	}
+
+	// only reads the file if it's been modified since we last read it
+	private void check()
+	{
+		Path path = this.path;
+		Consumer<PresenceDelta> sink = this.sink;
+		if (path == null || sink == null)
+		{
+			return;
+		}
+		try
+		{
+			FileTime modified = Files.getLastModifiedTime(path);
+			if (modified.equals(this.lastModified))
+			{
+				return;
+			}
+			this.lastModified = modified;
+			this.update(sink, this.read(path));
+		}
+		catch(NoSuchFileException e)
+		{
+			// nobody is online if there's no file
+			if (this.lastModified != null)
+			{
+				this.lastModified = null;
+				this.update(sink, new HashSet<>());
+			}
+		}
+		catch(IOException e)
+		{
+			Clockout.LOGGER.error("Failed to read clockout presence file {}", path, e);
+		}
+	}
+
+	private Set<UUID> read(Path path) throws IOException
+	{
+		Set<UUID> players = new HashSet<>();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+		{
+			String trimmed = line.trim();
+			if (!trimmed.isEmpty() && !trimmed.startsWith("#"))
+			{
+				try
+				{
+					players.add(UUID.fromString(trimmed));
+				}
+				catch(IllegalArgumentException e)
+				{
+					Clockout.LOGGER.warn("Ignoring invalid player UUID {} in clockout presence file {}", trimmed, path);
+				}
+			}
+		}
+		return players;
+	}
+
+	private void update(Consumer<PresenceDelta> sink, Set<UUID> nowOnline)
+	{
+		PresenceDelta delta = PresenceDelta.of(Sets.difference(nowOnline, this.online), Sets.difference(this.online, nowOnline));
+		this.online = nowOnline;
+		if (!delta.isEmpty())
+		{
+			sink.accept(delta);
+		}
+	}
+}
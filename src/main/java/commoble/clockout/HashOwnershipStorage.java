@@ -0,0 +1,151 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * The default storage engine, a hash set of positions per owner plus a hash map of positions to owners.
+ */
+public class HashOwnershipStorage implements OwnershipStorage
+{
+	// map of owner UUIDs to positions of the clockout blocks they own in this dimension
+	private final Map<UUID, LongSet> positionsByOwner = new HashMap<>();
+
+	// reverse index of packed positions to the owner of the clockout block there, kept in step with positionsByOwner
+	private final Long2ObjectMap<UUID> ownersByPosition = new Long2ObjectOpenHashMap<>();
+
+	// how many positions each owner has, kept in step with ownersByPosition
+	private final Object2IntMap<UUID> blockCountsByOwner = new Object2IntOpenHashMap<>();
+
+	@Override
+	public @Nullable UUID getOwner(long packedPos)
+	{
+		return this.ownersByPosition.get(packedPos);
+	}
+
+	@Override
+	public LongSet getPositions(@Nonnull UUID ownerID)
+	{
+		LongSet positions = this.positionsByOwner.get(ownerID);
+		return positions == null ? LongSets.EMPTY_SET : positions;
+	}
+
+	@Override
+	public Set<UUID> getOwners()
+	{
+		return this.positionsByOwner.keySet();
+	}
+
+	@Override
+	public int getBlockCount()
+	{
+		return this.ownersByPosition.size();
+	}
+
+	@Override
+	public int getBlockCount(@Nonnull UUID ownerID)
+	{
+		return this.blockCountsByOwner.getInt(ownerID);
+	}
+
+	@Override
+	public @Nullable UUID put(@Nonnull UUID ownerID, long packedPos)
+	{
+		UUID previousOwner = this.ownersByPosition.put(packedPos, ownerID);
+		if (previousOwner == null)
+		{
+			this.addToCount(ownerID, 1);
+		}
+		else if (!previousOwner.equals(ownerID))
+		{
+			this.removeFromOwner(previousOwner, packedPos);
+			this.addToCount(previousOwner, -1);
+			this.addToCount(ownerID, 1);
+		}
+		this.positionsByOwner.computeIfAbsent(ownerID, id -> new LongOpenHashSet()).add(packedPos);
+		return previousOwner;
+	}
+
+	// if the other owner has no positions here yet, the first owner's set is handed over as it is instead of being copied
+	@Override
+	public LongSet transfer(@Nonnull UUID fromOwnerID, @Nonnull UUID toOwnerID)
+	{
+		if (fromOwnerID.equals(toOwnerID))
+		{
+			return LongSets.EMPTY_SET;
+		}
+		LongSet positions = this.positionsByOwner.remove(fromOwnerID);
+		if (positions == null)
+		{
+			return LongSets.EMPTY_SET;
+		}
+		this.addToCount(toOwnerID, this.blockCountsByOwner.removeInt(fromOwnerID));
+		LongIterator iterator = positions.iterator();
+		while (iterator.hasNext())
+		{
+			this.ownersByPosition.put(iterator.nextLong(), toOwnerID);
+		}
+		LongSet existingPositions = this.positionsByOwner.get(toOwnerID);
+		if (existingPositions == null)
+		{
+			this.positionsByOwner.put(toOwnerID, positions);
+		}
+		else
+		{
+			existingPositions.addAll(positions);
+		}
+		return positions;
+	}
+
+	@Override
+	public @Nullable UUID remove(long packedPos)
+	{
+		UUID ownerID = this.ownersByPosition.remove(packedPos);
+		if (ownerID != null)
+		{
+			this.removeFromOwner(ownerID, packedPos);
+			this.addToCount(ownerID, -1);
+		}
+		return ownerID;
+	}
+
+	private void addToCount(UUID ownerID, int amount)
+	{
+		int count = this.blockCountsByOwner.getInt(ownerID) + amount;
+		if (count > 0)
+		{
+			this.blockCountsByOwner.put(ownerID, count);
+		}
+		else
+		{
+			this.blockCountsByOwner.removeInt(ownerID);
+		}
+	}
+
+	private void removeFromOwner(UUID ownerID, long packedPos)
+	{
+		LongSet positions = this.positionsByOwner.get(ownerID);
+		if (positions != null)
+		{
+			positions.remove(packedPos);
+			if (positions.isEmpty())
+			{
+				this.positionsByOwner.remove(ownerID);
+			}
+		}
+	}
+}
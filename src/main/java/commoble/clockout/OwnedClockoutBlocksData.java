@@ -1,11 +1,27 @@
 package commoble.clockout;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -14,37 +30,125 @@ import com.mojang.datafixers.util.Pair;
 import com.mojang.serialization.Codec;
 
 import commoble.clockout.util.CodecHelper;
-import net.minecraft.block.BlockState;
-import net.minecraft.entity.player.PlayerEntity;
+import it.unimi.dsi.fastutil.longs.Long2BooleanMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
 import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.ListNBT;
 import net.minecraft.nbt.NBTDynamicOps;
-import net.minecraft.state.BooleanProperty;
+import net.minecraft.nbt.StringNBT;
+import net.minecraft.profiler.IProfiler;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.SharedConstants;
 import net.minecraft.util.UUIDCodec;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.registry.Registry;
 import net.minecraft.world.IWorld;
 import net.minecraft.world.World;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraft.world.storage.DimensionSavedDataManager;
 import net.minecraft.world.storage.WorldSavedData;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
 
 public class OwnedClockoutBlocksData extends WorldSavedData
 {
 	public static final String DATA_NAME = Clockout.MODID + ":data";
 	public static final String PLAYERS = "players";
+	public static final String DEFERRED = "deferred";
+	public static final String JOURNAL_GENERATION = "journal_generation";
+	public static final String GROUPS = "groups";
+	public static final String DIMENSIONS = "dimensions";
+	public static final String POWER_STATES = "power_states";
 	
 	// this shouldn't be called on the client, return a fake instance if it is
 	public static final OwnedClockoutBlocksData CLIENT_DUMMY = new OwnedClockoutBlocksData();
 	
-	public static final Codec<Set<BlockPos>> POS_SET_CODEC = CodecHelper.makeSetCodec(BlockPos.CODEC);
-	public static final Codec<Map<RegistryKey<World>, Set<BlockPos>>> WORLD_MAP_CODEC = Codec.unboundedMap(World.CODEC, POS_SET_CODEC);
-	public static final Codec<Map<UUID, Map<RegistryKey<World>, Set<BlockPos>>>> PLAYER_MAP_CODEC =
+	// positions are stored in memory as longs packed by BlockPos::toLong, but serialized as lists of BlockPos as before
+	public static final Codec<LongSet> POS_SET_CODEC = BlockPos.CODEC.listOf().xmap(OwnedClockoutBlocksData::packPositions, OwnedClockoutBlocksData::unpackPositions);
+	public static final Codec<Map<RegistryKey<World>, LongSet>> WORLD_MAP_CODEC = Codec.unboundedMap(World.CODEC, POS_SET_CODEC);
+	public static final Codec<Map<UUID, Map<RegistryKey<World>, LongSet>>> PLAYER_MAP_CODEC =
 		CodecHelper.makeEntryListCodec(UUIDCodec.CODEC, WORLD_MAP_CODEC);
 	
 	
-	// map of player UUID to map of dimension IDs to set of extant positions of clockout blocks owned by that player
-	// we need player->world->positions rather than world->player->positions, so we can't just store data in different worlds
-	private Map<UUID, Map<RegistryKey<World>, Set<BlockPos>>> map = new HashMap<>();
+	// map of dimension IDs to the clockout blocks in that dimension, indexed by owner and by position
+	// each dimension's blocks are saved to their own file, and only when they've changed
+	// positions are packed into primitive longs so we don't need a BlockPos and a hash node per clockout block
+	private Map<RegistryKey<World>, DimensionOwnership> dimensions = new HashMap<>();
+	
+	// creates the storage engine of each dimension, see OwnershipStorage
+	private String storageEngineName = OwnershipStorageEngines.HASH_NAME;
+	private Supplier<? extends OwnershipStorage> storageEngine = HashOwnershipStorage::new;
+	
+	// small index of owner UUIDs to the dimensions they own clockout blocks in, kept in step with the dimensions
+	// so that we only have to look in those dimensions when an owner logs in or out
+	// not serialized, rebuilt from the dimensions on read
+	private Map<UUID, Set<RegistryKey<World>>> ownerDimensions = new HashMap<>();
+	
+	// dimensions whose blocks have changed since they were last saved
+	private Set<RegistryKey<World>> changedDimensions = new HashSet<>();
+	// dimensions whose files couldn't be read when the data was loaded, they stay listed in the main file and their files are
+	// left alone so that their blocks aren't lost for good, not serialized
+	private Set<RegistryKey<World>> unreadableDimensions = new HashSet<>();
+	// set by the background saver when a save fails, so that every dimension is saved again the next time
+	private volatile boolean needsFullSave = false;
+	// set by the background saver when a save fails, so that the data is marked dirty again on the server thread
+	// the data is marked clean as soon as a background save is submitted, before we know whether it worked
+	private volatile boolean saveFailed = false;
+	
+	// blocks in unloaded chunks whose power state will be reconciled when their chunk loads
+	private final DeferredChunkUpdates deferredUpdates = new DeferredChunkUpdates();
+	
+	// power changes waiting to be applied to the world, drained on the server tick
+	private final PowerChangeScheduler scheduler = new PowerChangeScheduler();
+	
+	// chunks that have loaded since the last tick, whose clockout blocks' recorded power states are checked against the world
+	// chunk events aren't guaranteed to be fired on the server thread
+	private final Queue<Pair<RegistryKey<World>, Long>> loadedChunks = new ConcurrentLinkedQueue<>();
+	// chunks with clockout blocks in them, kept by each dimension's DimensionOwnership, only these are queued when they load
+	private final ChunkKeySet ownedChunks = new ChunkKeySet();
+	
+	// removes positions whose clockout blocks were removed without us hearing about it, a few positions per tick
+	private final StaleEntrySweeper sweeper = new StaleEntrySweeper();
+	
+	// journal of ownership changes since the last full save, only open if journaled persistence is enabled
+	private @Nullable OwnershipJournal journal = null;
+	// generation of the most recent full save, journals from this generation onward are replayed when loading
+	private long journalGeneration = 0;
+	
+	// most recent snapshot taken for saving or for queries, and the owners and chunks whose positions have changed since then
+	// owners that haven't changed share their position sets with the previous snapshot instead of being copied again,
+	// and owners that have only copy the chunks that changed
+	private @Nullable OwnershipSnapshot lastSnapshot = null;
+	private Set<UUID> changedOwners = new HashSet<>();
+	private Map<RegistryKey<World>, LongSet> changedChunks = new HashMap<>();
+	private int ticksSinceSnapshot = 0;
+	
+	private int ticksSinceMetricsLog = 0;
+	
+	// players whose clockout blocks should currently be powered, not serialized
+	private final Set<UUID> onlinePlayers = new HashSet<>();
+	
+	// presence changes delivered by the presence provider, possibly from other threads, applied together on the next tick
+	private final Queue<PresenceDelta> presenceDeltas = new ConcurrentLinkedQueue<>();
+	
+	// set when the server starts stopping, there are no more ticks to apply presence changes on after that
+	private boolean isServerStopping = false;
+	
+	// players who went offline within the logout grace period, mapped to the tick their logout takes effect
+	// the grace period is the same for everybody, so insertion order is deadline order and only the head needs checking
+	private final Object2LongLinkedOpenHashMap<UUID> pendingLogouts = new Object2LongLinkedOpenHashMap<>();
+	
+	// groups of players that own clockout blocks together, their blocks are updated when the group's first member logs in or last member logs out
+	private final OwnerGroups groups = new OwnerGroups(this::scheduleOwnerBlocks);
 	
 //	private static final NBTListHelper<BlockPos> BLOCKPOS_LISTER = new NBTListHelper<BlockPos>(
 //		POSITIONS,
@@ -75,7 +179,10 @@ public class OwnedClockoutBlocksData extends WorldSavedData
 		super(DATA_NAME);
 	}
 	
-	// get the data from the world saved data manager, instantiating it first if it doesn't exist
+	// the data of the running server, so that we don't have to go through the overworld's saved data manager every time
+	private static volatile @Nullable OwnedClockoutBlocksData cachedData = null;
+	
+	// get the data of the world's server, instantiating it first if it doesn't exist
 	public static OwnedClockoutBlocksData get(IWorld world)
 	{
 		if (!(world instanceof ServerWorld))
@@ -83,130 +190,1291 @@ public class OwnedClockoutBlocksData extends WorldSavedData
 			return CLIENT_DUMMY;
 		}
 		
-		ServerWorld overworld = ((ServerWorld)world).getServer().getWorld(World.OVERWORLD);
+		OwnedClockoutBlocksData data = cachedData;
+		return data != null ? data : refreshCachedData(((ServerWorld)world).getServer());
+	}
+	
+	// gets the data from the world saved data manager and caches it until the server stops
+	public static OwnedClockoutBlocksData refreshCachedData(@Nonnull MinecraftServer server)
+	{
+		ServerWorld overworld = server.getWorld(World.OVERWORLD);
 		DimensionSavedDataManager storage = overworld.getSavedData();
-		return storage.getOrCreate(OwnedClockoutBlocksData::new, DATA_NAME);
+		OwnedClockoutBlocksData data = storage.getOrCreate(OwnedClockoutBlocksData::new, DATA_NAME);
+		cachedData = data;
+		return data;
+	}
+	
+	public static void clearCachedData()
+	{
+		cachedData = null;
 	}
 	
 	// returns null if nobody owns block
 	public @Nullable UUID getBlockOwner(@Nonnull World world, BlockPos pos)
 	{
-		return this.map.entrySet().stream()
-			.filter(
-				entry -> entry.getValue() != null &&
-				entry.getValue().getOrDefault(world.getDimensionKey(), new HashSet<BlockPos>()).contains(pos))
-			.findAny()
-			.map(entry -> entry.getKey()).orElse(null);
+		return this.getBlockOwner(world.getDimensionKey(), pos.toLong());
+	}
+	
+	// as above, with a position packed by BlockPos::toLong
+	public @Nullable UUID getBlockOwner(@Nonnull RegistryKey<World> dimID, long packedPos)
+	{
+		long startTime = System.nanoTime();
+		DimensionOwnership dimension = this.dimensions.get(dimID);
+		UUID owner = dimension == null ? null : dimension.getOwner(packedPos);
+		ClockoutMetrics.GET_BLOCK_OWNER_NANOS.record(System.nanoTime() - startTime);
+		return owner;
+	}
+	
+	public int getOwnerCount()
+	{
+		return this.ownerDimensions.size();
+	}
+	
+	public int getBlockCount()
+	{
+		int count = 0;
+		for (DimensionOwnership dimension : this.dimensions.values())
+		{
+			count += dimension.getBlockCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * Counts the owner's blocks in every dimension. Reads the counts each dimension keeps up to date,
+	 * so this takes the same time however many blocks the owner has.
+	 */
+	public int getOwnedBlockCount(@Nonnull UUID ownerID)
+	{
+		Set<RegistryKey<World>> dimIDs = this.ownerDimensions.get(ownerID);
+		if (dimIDs == null)
+		{
+			return 0;
+		}
+		int count = 0;
+		for (RegistryKey<World> dimID : dimIDs)
+		{
+			count += this.dimensions.get(dimID).getBlockCount(ownerID);
+		}
+		return count;
+	}
+	
+	public int getOwnedBlockCount(@Nonnull UUID ownerID, @Nonnull RegistryKey<World> dimID)
+	{
+		DimensionOwnership dimension = this.dimensions.get(dimID);
+		return dimension == null ? 0 : dimension.getBlockCount(ownerID);
+	}
+	
+	// the dimensions the owner has blocks in
+	public Set<RegistryKey<World>> getOwnedDimensions(@Nonnull UUID ownerID)
+	{
+		Set<RegistryKey<World>> dimIDs = this.ownerDimensions.get(ownerID);
+		return dimIDs == null ? Collections.emptySet() : Collections.unmodifiableSet(dimIDs);
+	}
+	
+	// counts every owner's blocks in every dimension from the live data, unlike ClockoutQueries::countsByPlayer
+	public Map<UUID, Integer> getOwnedBlockCounts()
+	{
+		Map<UUID, Integer> counts = new HashMap<>(this.ownerDimensions.size());
+		for (UUID ownerID : this.ownerDimensions.keySet())
+		{
+			counts.put(ownerID, this.getOwnedBlockCount(ownerID));
+		}
+		return counts;
+	}
+	
+	/**
+	 * Rough estimate of the memory used by the ownership maps, assuming the fastutil collections are at their default load factor.
+	 * With the hash engine, each position costs a packed long in its owner's set and a long key plus a reference in the reverse index,
+	 * and with the dense engine, a long key plus a long slot in the slot map and a packed long in its owner's array.
+	 * Each position also costs a packed long in its chunk's set and another in its owner's set for its recorded power state,
+	 * and each owner costs a map entry, a UUID, and a set per dimension.
+	 */
+	public long estimateHeapBytes()
+	{
+		long blocks = this.getBlockCount();
+		long ownerDimensions = 0;
+		for (Set<RegistryKey<World>> dimIDs : this.ownerDimensions.values())
+		{
+			ownerDimensions += dimIDs.size();
+		}
+		long storageBytesPerBlock = OwnershipStorageEngines.DENSE_NAME.equals(this.storageEngineName)
+			? (long)((Long.BYTES + Long.BYTES) / 0.75F) + Long.BYTES
+			: (long)((Long.BYTES + Long.BYTES + 8) / 0.75F);
+		long bytesPerBlock = storageBytesPerBlock + (long)((Long.BYTES + Long.BYTES) / 0.75F);
+		return blocks * bytesPerBlock + this.ownerDimensions.size() * 128L + ownerDimensions * 96L;
+	}
+	
+	@FunctionalInterface
+	public static interface BlockVisitor
+	{
+		/** @return false to stop visiting blocks **/
+		boolean visit(RegistryKey<World> dimID, long packedPos, UUID ownerID);
+	}
+	
+	/**
+	 * Visits the owned blocks within the given distance of the center until the visitor returns false, roughly nearest first.
+	 * Only the chunk index is read, so this never loads chunks. The visitor mustn't change the ownership data.
+	 */
+	public void forEachBlockNear(@Nonnull RegistryKey<World> dimID, @Nonnull BlockPos center, int radius, @Nonnull BlockVisitor visitor)
+	{
+		DimensionOwnership dimension = this.dimensions.get(dimID);
+		if (dimension != null)
+		{
+			dimension.forEachNear(center, radius, packedPos -> visitor.visit(dimID, packedPos, dimension.getOwner(packedPos)));
+		}
+	}
+	
+	/**
+	 * Visits the owner's blocks one dimension at a time until the visitor returns false.
+	 * Blocks are visited in the same order every time as long as the owner's blocks don't change,
+	 * so results can be paged through. The visitor mustn't change the ownership data.
+	 */
+	public void forEachOwnedBlock(@Nonnull UUID ownerID, @Nonnull BlockVisitor visitor)
+	{
+		Set<RegistryKey<World>> dimIDs = this.ownerDimensions.get(ownerID);
+		if (dimIDs == null)
+		{
+			return;
+		}
+		List<RegistryKey<World>> sortedDimIDs = new ArrayList<>(dimIDs);
+		sortedDimIDs.sort(Comparator.comparing(dimID -> dimID.getLocation().toString()));
+		for (RegistryKey<World> dimID : sortedDimIDs)
+		{
+			LongIterator iterator = this.dimensions.get(dimID).getPositions(ownerID).iterator();
+			while (iterator.hasNext())
+			{
+				if (!visitor.visit(dimID, iterator.nextLong(), ownerID))
+				{
+					return;
+				}
+			}
+		}
+	}
+	
+	public void putBlock(@Nonnull UUID playerID, @Nonnull World world, @Nonnull BlockPos pos)
+	{
+		this.putBlock(playerID, world.getDimensionKey(), pos);
 	}
 	
-	public void putBlock(@Nonnull UUID playerID, @Nonnull World world, @Nonnull BlockPos inputPos)
+	public void putBlock(@Nonnull UUID playerID, @Nonnull RegistryKey<World> dimID, @Nonnull BlockPos pos)
 	{
-		BlockPos pos = inputPos.toImmutable();	// just in case;
-		if (!this.map.containsKey(playerID))
+		long packedPos = pos.toLong();
+		this.putPackedBlock(playerID, dimID, packedPos);
+		this.onOwnershipChanged(journal -> journal.appendPut(playerID, dimID, packedPos));
+	}
+	
+	private void putPackedBlock(@Nonnull UUID playerID, @Nonnull RegistryKey<World> dimID, long packedPos)
+	{
+		// a position can only have one owner, so the dimension takes it away from the previous owner if there was one
+		DimensionOwnership dimension = this.dimensions.computeIfAbsent(dimID, this::createDimension);
+		UUID previousOwner = dimension.put(playerID, packedPos);
+		if (previousOwner != null && !previousOwner.equals(playerID))
 		{
-			this.map.put(playerID, new HashMap<RegistryKey<World>, Set<BlockPos>>());
+			this.onPositionRemoved(previousOwner, dimID, dimension);
 		}
+		if (!playerID.equals(previousOwner))
+		{
+			this.onChunkChanged(dimID, packedPos);
+		}
+		this.ownerDimensions.computeIfAbsent(playerID, id -> new HashSet<>()).add(dimID);
+		this.changedOwners.add(playerID);
+		this.changedDimensions.add(dimID);
+	}
+	
+	// adds all of the owner's positions in a dimension at once when loading
+	private void putOwnedPositions(@Nonnull UUID ownerID, @Nonnull RegistryKey<World> dimID, LongSet positions)
+	{
+		if (!positions.isEmpty())
+		{
+			this.dimensions.computeIfAbsent(dimID, this::createDimension).putAll(ownerID, positions);
+			this.ownerDimensions.computeIfAbsent(ownerID, id -> new HashSet<>()).add(dimID);
+		}
+	}
+	
+	// Block::remove is player-agnostic, so look up the owner in the reverse index
+	public void removeBlock(@Nonnull World world, @Nonnull BlockPos pos)
+	{
+		this.removeBlock(world.getDimensionKey(), pos);
+	}
+	
+	public void removeBlock(@Nonnull RegistryKey<World> dimID, @Nonnull BlockPos pos)
+	{
+		long packedPos = pos.toLong();
+		if (this.removePackedBlock(dimID, packedPos))
+		{
+			this.onOwnershipChanged(journal -> journal.appendRemove(dimID, packedPos));
+		}
+	}
+	
+	// returns true if the position was owned by anybody
+	private boolean removePackedBlock(@Nonnull RegistryKey<World> dimID, long packedPos)
+	{
+		DimensionOwnership dimension = this.dimensions.get(dimID);
+		UUID playerID = dimension == null ? null : dimension.remove(packedPos);
+		if (playerID == null)
+		{
+			return false;
+		}
+		if (dimension.isEmpty())
+		{
+			this.dimensions.remove(dimID);
+		}
+		this.onPositionRemoved(playerID, dimID, dimension);
+		this.onChunkChanged(dimID, packedPos);
+		this.changedDimensions.add(dimID);
+		return true;
+	}
+	
+	/**
+	 * Applies a batch of ownership changes in one pass. Each dimension is looked up once, the owner index is updated
+	 * once per owner and dimension, and the data is marked dirty once at the end instead of once per block.
+	 * Blocks that are given an owner or change hands are updated to match their new owner's online state.
+	 * @return The number of positions whose owner changed
+	 */
+	public int apply(@Nonnull OwnershipBatch batch)
+	{
+		int changed = 0;
+		for (Map.Entry<RegistryKey<World>, OwnershipBatch.DimensionChanges> entry : batch.getChanges().entrySet())
+		{
+			changed += this.applyDimensionChanges(entry.getKey(), entry.getValue());
+		}
+		for (Pair<UUID, UUID> transfer : batch.getTransfers())
+		{
+			changed += this.transferAll(transfer.getFirst(), transfer.getSecond());
+		}
+		if (changed > 0 && (this.journal == null || this.journal.getRecordCount() >= Clockout.config.journal_compaction_threshold.get()))
+		{
+			this.markDirty();
+		}
+		return changed;
+	}
+	
+	private int applyDimensionChanges(@Nonnull RegistryKey<World> dimID, OwnershipBatch.DimensionChanges changes)
+	{
+		DimensionOwnership dimension = this.dimensions.computeIfAbsent(dimID, this::createDimension);
+		Set<UUID> gainedOwners = new HashSet<>();
+		Set<UUID> lostOwners = new HashSet<>();
+		int changed = 0;
+		for (int i=0; i<changes.size(); i++)
+		{
+			long packedPos = changes.getPosition(i);
+			UUID ownerID = changes.getOwner(i);
+			UUID currentOwner = dimension.getOwner(packedPos);
+			if (Objects.equals(ownerID, currentOwner))
+			{
+				continue;
+			}
+			if (currentOwner != null)
+			{
+				lostOwners.add(currentOwner);
+			}
+			this.onChunkChanged(dimID, packedPos);
+			if (ownerID == null)
+			{
+				dimension.remove(packedPos);
+				this.appendToJournal(journal -> journal.appendRemove(dimID, packedPos));
+			}
+			else
+			{
+				dimension.put(ownerID, packedPos);
+				gainedOwners.add(ownerID);
+				this.appendToJournal(journal -> journal.appendPut(ownerID, dimID, packedPos));
+				// fresh blocks weren't placed through ClockoutBlock, so they may not be in their owner's state yet
+				boolean shouldBePowered = this.isOwnerOnline(ownerID);
+				if (currentOwner == null || this.isOwnerOnline(currentOwner) != shouldBePowered)
+				{
+					this.schedulePowerChange(dimID, dimension, packedPos, shouldBePowered);
+				}
+			}
+			changed++;
+		}
+		this.onOwnersChanged(dimID, dimension, gainedOwners, lostOwners);
+		return changed;
+	}
+	
+	// gives all of one owner's blocks to another, moving each dimension's position set as a whole
+	private int transferAll(@Nonnull UUID fromOwnerID, @Nonnull UUID toOwnerID)
+	{
+		Set<RegistryKey<World>> dimIDs = this.ownerDimensions.get(fromOwnerID);
+		if (dimIDs == null || fromOwnerID.equals(toOwnerID))
+		{
+			return 0;
+		}
+		boolean shouldBePowered = this.isOwnerOnline(toOwnerID);
+		boolean isPowerChanging = this.isOwnerOnline(fromOwnerID) != shouldBePowered;
+		int changed = 0;
+		for (RegistryKey<World> dimID : new ArrayList<>(dimIDs))
+		{
+			DimensionOwnership dimension = this.dimensions.get(dimID);
+			LongSet positions = dimension.transfer(fromOwnerID, toOwnerID);
+			LongIterator changedIterator = positions.iterator();
+			while (changedIterator.hasNext())
+			{
+				this.onChunkChanged(dimID, changedIterator.nextLong());
+			}
+			this.appendToJournal(journal ->
+			{
+				LongIterator iterator = positions.iterator();
+				while (iterator.hasNext())
+				{
+					journal.appendPut(toOwnerID, dimID, iterator.nextLong());
+				}
+			});
+			if (isPowerChanging)
+			{
+				LongIterator iterator = positions.iterator();
+				while (iterator.hasNext())
+				{
+					this.schedulePowerChange(dimID, dimension, iterator.nextLong(), shouldBePowered);
+				}
+			}
+			changed += positions.size();
+			this.onOwnersChanged(dimID, dimension, Collections.singleton(toOwnerID), Collections.singleton(fromOwnerID));
+		}
+		return changed;
+	}
+	
+	// keeps the owner index in step after a dimension's blocks were changed in bulk, once per owner instead of once per block
+	private void onOwnersChanged(@Nonnull RegistryKey<World> dimID, DimensionOwnership dimension, Set<UUID> gainedOwners, Set<UUID> lostOwners)
+	{
+		for (UUID ownerID : gainedOwners)
+		{
+			this.ownerDimensions.computeIfAbsent(ownerID, id -> new HashSet<>()).add(dimID);
+		}
+		for (UUID ownerID : lostOwners)
+		{
+			this.onPositionRemoved(ownerID, dimID, dimension);
+		}
+		this.changedOwners.addAll(gainedOwners);
+		if (!gainedOwners.isEmpty() || !lostOwners.isEmpty())
+		{
+			this.changedDimensions.add(dimID);
+		}
+		if (dimension.isEmpty())
+		{
+			this.dimensions.remove(dimID);
+		}
+	}
+	
+	// remembers which chunks the next snapshot has to copy
+	private void onChunkChanged(@Nonnull RegistryKey<World> dimID, long packedPos)
+	{
+		if (this.lastSnapshot != null)
+		{
+			this.changedChunks.computeIfAbsent(dimID, id -> new LongOpenHashSet()).add(ChunkedPositionSet.getChunkKey(packedPos));
+		}
+	}
+	
+	// keeps the owner index in step after a position was taken away from an owner
+	private void onPositionRemoved(@Nonnull UUID playerID, @Nonnull RegistryKey<World> dimID, DimensionOwnership dimension)
+	{
+		this.changedOwners.add(playerID);
+		if (dimension.getBlockCount(playerID) == 0)
+		{
+			Set<RegistryKey<World>> dimIDs = this.ownerDimensions.get(playerID);
+			if (dimIDs != null)
+			{
+				dimIDs.remove(dimID);
+				if (dimIDs.isEmpty())
+				{
+					this.ownerDimensions.remove(playerID);
+				}
+			}
+		}
+	}
+	
+	// if we're journaling, append the change to the journal and only mark the data dirty
+	// when the journal has gotten big enough that it's worth compacting it into a full save
+	private void onOwnershipChanged(JournalWriter writer)
+	{
+		if (this.journal != null)
+		{
+			try
+			{
+				writer.write(this.journal);
+				if (this.journal.getRecordCount() >= Clockout.config.journal_compaction_threshold.get())
+				{
+					this.markDirty();
+				}
+				return;
+			}
+			catch(IOException e)
+			{
+				Clockout.LOGGER.error("Failed to write to clockout journal, falling back to full saves", e);
+				this.closeJournal();
+			}
+		}
+		this.markDirty();
+	}
+	
+	// appends to the journal if we're journaling without marking the data dirty, for changes that mark it dirty themselves
+	private void appendToJournal(JournalWriter writer)
+	{
+		if (this.journal != null)
+		{
+			try
+			{
+				writer.write(this.journal);
+			}
+			catch(IOException e)
+			{
+				Clockout.LOGGER.error("Failed to write to clockout journal, falling back to full saves", e);
+				this.closeJournal();
+			}
+		}
+	}
+	
+	@FunctionalInterface
+	private static interface JournalWriter
+	{
+		void write(OwnershipJournal journal) throws IOException;
+	}
+	
+	public void openJournal(@Nonnull MinecraftServer server)
+	{
+		if (this.journal == null)
+		{
+			try
+			{
+				this.journal = OwnershipJournal.open(OwnershipJournal.getDirectory(server), this.journalGeneration);
+			}
+			catch(IOException e)
+			{
+				Clockout.LOGGER.error("Failed to open clockout journal, falling back to full saves", e);
+			}
+		}
+	}
+	
+	public void closeJournal()
+	{
+		if (this.journal != null)
+		{
+			try
+			{
+				this.journal.close();
+			}
+			catch(IOException e)
+			{
+				Clockout.LOGGER.error("Failed to close clockout journal", e);
+			}
+			this.journal = null;
+		}
+	}
+	
+	public boolean isJournaling()
+	{
+		return this.journal != null;
+	}
+	
+	// safe to call from any thread
+	public void queuePresenceDelta(@Nonnull PresenceDelta delta)
+	{
+		this.presenceDeltas.add(delta);
+	}
+	
+	public void onChunkLoad(@Nonnull ServerWorld world, @Nonnull ChunkPos chunkPos)
+	{
+		this.onChunkLoad(world.getDimensionKey(), chunkPos);
+	}
+	
+	void onChunkLoad(@Nonnull RegistryKey<World> dimID, @Nonnull ChunkPos chunkPos)
+	{
+		this.deferredUpdates.onChunkLoaded(dimID, chunkPos);
+		// most chunks have no clockout blocks in them
+		long chunkKey = chunkPos.asLong();
+		if (this.ownedChunks.contains(dimID, chunkKey))
+		{
+			this.loadedChunks.add(Pair.of(dimID, chunkKey));
+		}
+	}
+	
+	public void onServerTick(@Nonnull MinecraftServer server)
+	{
+		IProfiler profiler = server.getProfiler();
+		profiler.startSection(Clockout.MODID);
 		
-		Map<RegistryKey<World>, Set<BlockPos>> subMap = this.map.get(playerID);
-		RegistryKey<World> dimID = world.getDimensionKey();
+		if (!this.presenceDeltas.isEmpty() || !this.pendingLogouts.isEmpty())
+		{
+			profiler.startSection("presence");
+			int tick = server.getTickCounter();
+			this.applyPresenceDeltas(tick);
+			this.applyPendingLogouts(tick);
+			profiler.endSection();
+		}
 		
-		if (!subMap.containsKey(dimID))
+		// republish the snapshot used by ClockoutQueries if anything has changed
+		this.ticksSinceSnapshot++;
+		if ((this.lastSnapshot == null || !this.changedOwners.isEmpty())
+			&& this.ticksSinceSnapshot >= Clockout.config.query_snapshot_interval.get())
 		{
-			subMap.put(dimID, new HashSet<BlockPos>());
+			this.takeSnapshot();
 		}
 		
-		Set<BlockPos> blockSet = subMap.get(dimID);
+		Function<RegistryKey<World>, ClockoutWorld> worlds = dimID -> ServerClockoutWorld.get(server, dimID);
+		this.scheduleLoadedChunks(worlds);
 		
-		blockSet.add(pos);
-		this.markDirty();
+		if (!this.loadedChunks.isEmpty())
+		{
+			profiler.startSection("checkLoadedChunks");
+			this.checkLoadedChunks(worlds);
+			profiler.endSection();
+		}
+		
+		if (this.journal != null)
+		{
+			try
+			{
+				this.journal.flush();
+			}
+			catch(IOException e)
+			{
+				Clockout.LOGGER.error("Failed to write to clockout journal, falling back to full saves", e);
+				this.closeJournal();
+				this.markDirty();
+			}
+		}
+		
+		if (this.scheduler.size() > 0)
+		{
+			profiler.startSection("setBlockPowered");
+			this.applyPowerChanges(worlds,
+				Clockout.config.max_clockout_updates_per_tick.get(),
+				Clockout.config.max_clockout_update_microseconds_per_tick.get(),
+				Clockout.config.defer_unloaded_chunk_updates.get());
+			profiler.endSection();
+		}
+		
+		int sweeperEntriesPerTick = Clockout.config.sweeper_entries_per_tick.get();
+		if (sweeperEntriesPerTick > 0)
+		{
+			profiler.startSection("sweep");
+			this.sweeper.sweep(worlds, this, sweeperEntriesPerTick);
+			profiler.endSection();
+		}
+		
+		int metricsLogInterval = Clockout.config.metrics_log_interval.get();
+		if (metricsLogInterval > 0 && ++this.ticksSinceMetricsLog >= metricsLogInterval)
+		{
+			this.ticksSinceMetricsLog = 0;
+			ClockoutMetrics.describe(this).forEach(line -> Clockout.LOGGER.debug("Clockout stats: {}", line));
+		}
+		
+		profiler.endSection();
 	}
 	
-	// Block::remove is player-agnostic, so just check every player here
-	public void removeBlock(@Nonnull World world, @Nonnull BlockPos pos)
+	/**
+	 * Called on the server thread when the server starts stopping. Applies the presence changes that are still queued,
+	 * logs out the players whose logout grace period hasn't run out yet, and defers the power changes that causes
+	 * until their chunks next load, so that they end up in the final save.
+	 * The server logs its players out after this, so from now on queued presence changes are applied the same way whenever the data is saved.
+	 */
+	public void onServerStopping()
 	{
-		this.map.keySet().forEach(playerID -> this.removeBlock(playerID, world, pos));
+		this.isServerStopping = true;
+		this.applyPresenceWithoutTicks();
 	}
 	
-	private void removeBlock(@Nonnull UUID playerID, @Nonnull World world, @Nonnull BlockPos pos)
+	// applies the queued presence changes and pending logouts right away, and defers every scheduled power change until its chunk next loads
+	private void applyPresenceWithoutTicks()
 	{
-		Map<RegistryKey<World>, Set<BlockPos>> subMap = this.map.get(playerID);
-		if (subMap != null)
+		this.applyPresenceDeltas(0);
+		// pending logouts aren't saved, and their grace period can't run out without ticks, so they take effect now
+		this.applyPendingLogouts(Integer.MAX_VALUE);
+		if (this.scheduler.size() > 0)
 		{
-			RegistryKey<World> dimID = world.getDimensionKey();
-			Set<BlockPos> blockSet = subMap.get(dimID);
-			if (blockSet != null)
+			int deferred = this.scheduler.drain(0, 0, (dimID, positions) ->
 			{
-				blockSet.remove(pos);
-				this.markDirty();
+				LongIterator iterator = positions.keySet().iterator();
+				while (iterator.hasNext())
+				{
+					this.deferredUpdates.defer(dimID, iterator.nextLong());
+				}
+			});
+			ClockoutMetrics.UPDATES_DEFERRED.add(deferred);
+			this.markDirty();
+		}
+	}
+	
+	// applies every delta queued since the last tick in one pass
+	private void applyPresenceDeltas(int tick)
+	{
+		// later deltas override earlier ones, so a player who went offline and came back since the last tick isn't updated at all
+		Map<UUID, Boolean> changes = new LinkedHashMap<>();
+		PresenceDelta delta;
+		while ((delta = this.presenceDeltas.poll()) != null)
+		{
+			delta.getOffline().forEach(playerID -> changes.put(playerID, false));
+			delta.getOnline().forEach(playerID -> changes.put(playerID, true));
+		}
+		int gracePeriod = Clockout.config.logout_grace_period.get() * 20;
+		changes.forEach((playerID, isOnlineNow) ->
+		{
+			if (isOnlineNow && this.pendingLogouts.containsKey(playerID))
+			{
+				// came back within the grace period, so their blocks never turned off
+				this.pendingLogouts.removeLong(playerID);
 			}
+			else if (this.onlinePlayers.contains(playerID) != isOnlineNow)
+			{
+				if (!isOnlineNow && gracePeriod > 0)
+				{
+					this.pendingLogouts.putAndMoveToLast(playerID, tick + gracePeriod);
+				}
+				else
+				{
+					this.onPlayerLoginStateChange(playerID, isOnlineNow);
+				}
+			}
+		});
+	}
+	
+	// logs out the players whose grace period has run out
+	private void applyPendingLogouts(int tick)
+	{
+		while (!this.pendingLogouts.isEmpty() && this.pendingLogouts.getLong(this.pendingLogouts.firstKey()) <= tick)
+		{
+			UUID playerID = this.pendingLogouts.firstKey();
+			this.pendingLogouts.removeFirstLong();
+			this.onPlayerLoginStateChange(playerID, false);
 		}
 	}
 	
-	public void onPlayerLogin(@Nonnull ServerWorld serverWorld, @Nonnull PlayerEntity player)
+	void onPlayerLoginStateChange(@Nonnull UUID playerID, boolean isLoggedInNow)
 	{
-		this.onPlayerLoginStateChange(serverWorld, player, true);
+		IProfiler profiler = ClockoutMetrics.getProfiler();
+		profiler.startSection("clockout_onPlayerLoginStateChange");
+		long startTime = System.nanoTime();
+		if (isLoggedInNow)
+		{
+			this.onlinePlayers.add(playerID);
+		}
+		else
+		{
+			this.onlinePlayers.remove(playerID);
+		}
+		// the blocks aren't updated here, they're queued and updated over the next few ticks
+		long blocks = this.scheduleOwnerBlocks(playerID, isLoggedInNow);
+		this.groups.onMemberLoginStateChange(playerID, isLoggedInNow);
+		ClockoutMetrics.recordTransition(playerID, blocks, System.nanoTime() - startTime);
+		profiler.endSection();
 	}
 	
-	public void onPlayerLogout(@Nonnull ServerWorld serverWorld, @Nonnull PlayerEntity player)
+	// queues power changes for all of the owner's blocks, returns the number of blocks queued
+	private long scheduleOwnerBlocks(@Nonnull UUID ownerID, boolean shouldBePowered)
 	{
-		this.onPlayerLoginStateChange(serverWorld, player, false);
+		Set<RegistryKey<World>> dimIDs = this.ownerDimensions.get(ownerID);
+		long blocks = 0;
+		if (dimIDs != null)
+		{
+			for (RegistryKey<World> dimID : dimIDs)
+			{
+				// blocks that are already in the right state are skipped without visiting them or reading the world
+				DimensionOwnership dimension = this.dimensions.get(dimID);
+				long[] positions = dimension.getPositionsNotRecordedAs(ownerID, shouldBePowered);
+				for (long packedPos : positions)
+				{
+					this.schedulePowerChange(dimID, dimension, packedPos, shouldBePowered);
+				}
+				ClockoutMetrics.POWER_CHANGES_SKIPPED.add(dimension.getBlockCount(ownerID) - positions.length);
+				blocks += positions.length;
+			}
+		}
+		return blocks;
 	}
 	
-	private void onPlayerLoginStateChange(@Nonnull ServerWorld serverWorld, @Nonnull PlayerEntity player, boolean isLoggedInNow)
+	// the new state is recorded right away, so that a change in the other direction before this one is applied isn't skipped
+	private void schedulePowerChange(@Nonnull RegistryKey<World> dimID, DimensionOwnership dimension, long packedPos, boolean shouldBePowered)
 	{
-		UUID playerID = player.getGameProfile().getId();
-		Optional.ofNullable(this.map.get(playerID))
-			.ifPresent(subMap ->
-				subMap.entrySet().forEach(entry ->
-				this.setAllBlockStates(
-					playerID,
-					serverWorld.getServer().getWorld(entry.getKey()),
-					entry.getValue(),
-					isLoggedInNow
-				)
-			)
-		);
+		this.scheduler.schedule(dimID, packedPos, shouldBePowered);
+		dimension.recordPowerState(packedPos, shouldBePowered);
 	}
 	
-	private void setAllBlockStates(UUID playerID, ServerWorld world, Set<BlockPos> blockSet, boolean active)
+	// schedules the updates that were deferred until their chunks loaded, now that they have
+	void scheduleLoadedChunks(Function<RegistryKey<World>, ClockoutWorld> worlds)
 	{
-		blockSet.forEach(pos -> this.setBlockPowered(playerID, world, pos, active));
+		this.deferredUpdates.drainLoadedChunks((dimID, positions) ->
+		{
+			if (worlds.apply(dimID) != null)
+			{
+				for (long packedPos : positions)
+				{
+					UUID owner = this.getBlockOwner(dimID, packedPos);
+					if (owner != null)
+					{
+						this.schedulePowerChange(dimID, this.dimensions.get(dimID), packedPos, this.isOwnerOnline(owner));
+					}
+				}
+			}
+		});
 	}
 	
-	private void setBlockPowered(UUID playerID, ServerWorld world, BlockPos pos, boolean shouldBePoweredNow)
+	/**
+	 * Applies scheduled power changes to the worlds, see PowerChangeScheduler::drain for the limits
+	 * @param worlds Gets the world of a dimension, or null if it doesn't exist right now
+	 * @param deferUnloaded If true, changes to blocks in unloaded chunks are deferred until the chunk loads instead of loading it
+	 * @return The number of changes that were taken off the schedule
+	 */
+	int applyPowerChanges(Function<RegistryKey<World>, ClockoutWorld> worlds, int maxUpdates, int maxMicros, boolean deferUnloaded)
 	{
-		BlockState state = world.getBlockState(pos);
-		ClockoutBlock clockoutBlock = ObjectHolders.CLOCKOUT_BLOCK;
-		BooleanProperty powered = ClockoutBlock.POWERED;
-		if (state.getBlock() == clockoutBlock)
+		return this.scheduler.drain(maxUpdates, maxMicros, (dimID, positions) ->
 		{
-			if (state.hasProperty(powered) && (state.get(powered) != shouldBePoweredNow))
+			ClockoutWorld world = worlds.apply(dimID);
+			if (world != null)
 			{
-				world.setBlockState(pos, state.with(powered, shouldBePoweredNow));
+				this.applyOrDeferPowerChanges(world, positions, deferUnloaded);
 			}
+		});
+	}
+	
+	/**
+	 * Checks the recorded power states of the clockout blocks in the chunks that loaded since the last tick against the world,
+	 * and schedules power changes for blocks that aren't in their owner's state, e.g. blocks whose changes were lost in a crash.
+	 * This is what lets fan-out trust the recorded states of blocks in chunks that aren't loaded.
+	 */
+	void checkLoadedChunks(Function<RegistryKey<World>, ClockoutWorld> worlds)
+	{
+		Pair<RegistryKey<World>, Long> loadedChunk;
+		while ((loadedChunk = this.loadedChunks.poll()) != null)
+		{
+			RegistryKey<World> dimID = loadedChunk.getFirst();
+			DimensionOwnership dimension = this.dimensions.get(dimID);
+			ClockoutWorld world = worlds.apply(dimID);
+			if (dimension == null || world == null)
+			{
+				continue;
+			}
+			LongIterator iterator = dimension.getPositionsInChunk(loadedChunk.getSecond().longValue()).iterator();
+			while (iterator.hasNext())
+			{
+				long packedPos = iterator.nextLong();
+				if (!world.isBlockLoaded(packedPos))
+				{
+					// the chunk was unloaded again already, its blocks will be checked when it next loads
+					break;
+				}
+				ClockoutWorld.BlockPower power = world.getBlockPower(packedPos);
+				if (power != ClockoutWorld.BlockPower.MISSING)
+				{
+					boolean powered = power == ClockoutWorld.BlockPower.POWERED;
+					boolean shouldBePowered = this.isOwnerOnline(dimension.getOwner(packedPos));
+					dimension.recordPowerState(packedPos, powered);
+					if (powered != shouldBePowered)
+					{
+						this.schedulePowerChange(dimID, dimension, packedPos, shouldBePowered);
+					}
+				}
+			}
+		}
+	}
+	
+	private DimensionOwnership createDimension(RegistryKey<World> dimID)
+	{
+		return new DimensionOwnership(this.storageEngine.get(), this.ownedChunks.getChunks(dimID));
+	}
+	
+	/**
+	 * Switches every dimension to the storage engine with the given name, see OwnershipStorageEngines.
+	 * Blocks that are already loaded are copied into the new engines, so this can be called at any time, but it's cheapest
+	 * before any blocks are loaded.
+	 */
+	public void setStorageEngine(String name)
+	{
+		if (!OwnershipStorageEngines.isRegistered(name))
+		{
+			Clockout.LOGGER.error("Unknown clockout storage engine {}, using {} instead", name, OwnershipStorageEngines.HASH_NAME);
+			name = OwnershipStorageEngines.HASH_NAME;
+		}
+		if (name.equals(this.storageEngineName))
+		{
+			return;
+		}
+		this.storageEngineName = name;
+		this.storageEngine = OwnershipStorageEngines.get(name);
+		this.dimensions.replaceAll((dimID, dimension) -> dimension.copyTo(this.storageEngine.get()));
+	}
+	
+	public String getStorageEngineName()
+	{
+		return this.storageEngineName;
+	}
+	
+	public boolean isPlayerOnline(@Nonnull UUID playerID)
+	{
+		return this.onlinePlayers.contains(playerID);
+	}
+	
+	// the owner can be a player or a group, group-owned blocks are powered while any member is online
+	public boolean isOwnerOnline(@Nonnull UUID ownerID)
+	{
+		return this.onlinePlayers.contains(ownerID) || this.groups.isOnline(ownerID);
+	}
+	
+	// call markDirty after changing the groups so that they get saved
+	public OwnerGroups getGroups()
+	{
+		return this.groups;
+	}
+	
+	Set<RegistryKey<World>> getOwnedDimensions()
+	{
+		return this.dimensions.keySet();
+	}
+	
+	// finds the first chunk in the dimension with owned positions whose key is at least the given key, see DimensionOwnership::getNextChunk
+	OptionalLong getNextOwnedChunk(RegistryKey<World> dimID, long fromChunkKey)
+	{
+		DimensionOwnership dimension = this.dimensions.get(dimID);
+		return dimension == null ? OptionalLong.empty() : dimension.getNextChunk(fromChunkKey);
+	}
+	
+	// returns a copy of the positions of the owned clockout blocks in the given chunk
+	long[] getOwnedPositionsInChunk(RegistryKey<World> dimID, long chunkKey)
+	{
+		DimensionOwnership dimension = this.dimensions.get(dimID);
+		return dimension == null ? new long[0] : dimension.getPositionsInChunk(chunkKey).toLongArray();
+	}
+	
+	PowerChangeScheduler getScheduler()
+	{
+		return this.scheduler;
+	}
+	
+	/**
+	 * Applies a batch of power changes in the same chunk section.
+	 * If deferral is enabled and the chunk isn't loaded, the changes are left alone until the chunk loads
+	 * so that we don't load chunks synchronously on the server thread just to flip some blocks.
+	 * Blocks are set without notifying their neighbors, and neighbors are notified once per changed block after the whole batch is set,
+	 * so that redstone reacts to the batch as a whole. Vanilla already sends the block changes in a section to clients as one packet.
+	 */
+	private void applyOrDeferPowerChanges(ClockoutWorld world, Long2BooleanMap positions, boolean deferUnloaded)
+	{
+		// the positions are all in the same chunk, so they're either all loaded or all unloaded
+		boolean isLoaded = world.isBlockLoaded(positions.keySet().iterator().nextLong());
+		if (!isLoaded && deferUnloaded)
+		{
+			RegistryKey<World> dimID = world.getDimensionKey();
+			LongIterator iterator = positions.keySet().iterator();
+			while (iterator.hasNext())
+			{
+				this.deferredUpdates.defer(dimID, iterator.nextLong());
+			}
+			this.markDirty();
+			ClockoutMetrics.UPDATES_DEFERRED.add(positions.size());
+			return;
+		}
+		
+		if (!isLoaded)
+		{
+			ClockoutMetrics.CHUNK_LOADS_TRIGGERED.increment();
+		}
+		LongList changedPositions = new LongArrayList(positions.size());
+		for (Long2BooleanMap.Entry entry : positions.long2BooleanEntrySet())
+		{
+			long packedPos = entry.getLongKey();
+			if (this.setBlockPowered(world, packedPos, entry.getBooleanValue()))
+			{
+				changedPositions.add(packedPos);
+			}
+		}
+		for (int i=0; i<changedPositions.size(); i++)
+		{
+			world.notifyNeighbors(changedPositions.getLong(i));
+		}
+	}
+	
+	// sets the block's state without notifying neighbors, returns true if the state was changed
+	private boolean setBlockPowered(ClockoutWorld world, long packedPos, boolean shouldBePoweredNow)
+	{
+		long startTime = System.nanoTime();
+		boolean changed = false;
+		ClockoutWorld.BlockPower power = world.getBlockPower(packedPos);
+		if (power == ClockoutWorld.BlockPower.MISSING)
+		{
+			// block was removed from world but not removed from map, so make sure it's removed from map as well
+			this.removeBlock(world.getDimensionKey(), BlockPos.fromLong(packedPos));
+			ClockoutMetrics.STALE_ENTRIES_PRUNED.increment();
 		}
-		else	// block was removed from world but not removed from map, so make sure it's removed from map as well
+		else if ((power == ClockoutWorld.BlockPower.POWERED) != shouldBePoweredNow)
 		{
-			this.removeBlock(playerID, world, pos);
+			// send the change to clients but don't notify neighbors yet, they're notified after the whole batch is set
+			changed = world.setBlockPowered(packedPos, shouldBePoweredNow);
+			ClockoutMetrics.BLOCKS_FLIPPED.increment();
 		}
+		ClockoutMetrics.SET_BLOCK_POWERED_NANOS.record(System.nanoTime() - startTime);
+		return changed;
 	}
 
 	@Override
 	public void read(CompoundNBT nbt)
 	{
-		this.map = PLAYER_MAP_CODEC.decode(NBTDynamicOps.INSTANCE, nbt.get(PLAYERS))
-			.result()
-			.map(Pair::getFirst)
-			.orElse(new HashMap<>());
+		IProfiler profiler = ClockoutMetrics.getProfiler();
+		profiler.startSection("clockout_read");
+		long startTime = System.nanoTime();
+		
+		this.dimensions = new HashMap<>();
+		this.ownedChunks.clear();
+		this.ownerDimensions = new HashMap<>();
+		this.unreadableDimensions = new HashSet<>();
+		this.lastSnapshot = null;
+		this.changedOwners = new HashSet<>();
+		this.changedChunks = new HashMap<>();
+		
+		if (nbt.contains(DIMENSIONS, Constants.NBT.TAG_LIST))
+		{
+			this.readDimensionFiles(nbt.getList(DIMENSIONS, Constants.NBT.TAG_STRING));
+		}
+		else
+		{
+			// data saved before dimensions were saved separately has every dimension in the same compound,
+			// and data saved before the compact format existed was saved with the player map codec
+			Map<UUID, Map<RegistryKey<World>, LongSet>> loadedMap = CompactOwnershipFormat.isCompact(nbt)
+				? CompactOwnershipFormat.read(nbt)
+				: PLAYER_MAP_CODEC.decode(NBTDynamicOps.INSTANCE, nbt.get(PLAYERS))
+					.result()
+					.map(Pair::getFirst)
+					.orElse(new HashMap<>());
+			loadedMap.forEach((playerID, subMap) -> subMap.forEach((dimID, positions) -> this.putOwnedPositions(playerID, dimID, positions)));
+			// save each dimension to its own file the next time we save
+			this.needsFullSave = true;
+			if (!this.dimensions.isEmpty())
+			{
+				this.markDirty();
+			}
+		}
+		this.changedDimensions = new HashSet<>();
+		this.readPowerStates(nbt.getCompound(POWER_STATES));
+		this.deferredUpdates.read(nbt.getCompound(DEFERRED));
+		this.journalGeneration = nbt.getLong(JOURNAL_GENERATION);
+		this.groups.read(nbt.getCompound(GROUPS), this.onlinePlayers::contains);
+		this.replayJournals();
+		
+		ClockoutMetrics.READ_NANOS.record(System.nanoTime() - startTime);
+		profiler.endSection();
+	}
+	
+	// loads the blocks of each of the given dimensions from their own files
+	private void readDimensionFiles(ListNBT dimensionList)
+	{
+		MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+		if (server != null)
+		{
+			Path directory = OwnershipJournal.getDirectory(server);
+			for (int i=0; i<dimensionList.size(); i++)
+			{
+				ResourceLocation location = ResourceLocation.tryCreate(dimensionList.getString(i));
+				if (location != null)
+				{
+					RegistryKey<World> dimID = RegistryKey.getOrCreateKey(Registry.WORLD_KEY, location);
+					Path file = getDimensionFile(directory, dimID);
+					if (!Files.exists(file))
+					{
+						Clockout.LOGGER.warn("Clockout data for dimension {} is missing, expected it at {}", location, file);
+						continue;
+					}
+					try
+					{
+						CompoundNBT nbt = CompressedStreamTools.readCompressed(file.toFile());
+						CompactOwnershipFormat.readDimension(nbt.getCompound("data"))
+							.forEach((ownerID, positions) -> this.putOwnedPositions(ownerID, dimID, new LongOpenHashSet(positions)));
+					}
+					catch(IOException e)
+					{
+						Clockout.LOGGER.error("Could not load clockout data for dimension {}, its file won't be saved over until it can be read", location, e);
+						this.unreadableDimensions.add(dimID);
+					}
+				}
+			}
+		}
+	}
+	
+	// data saved before power states were saved has no power states, so its blocks are left unrecorded and checked by the first fan-out
+	private void readPowerStates(CompoundNBT nbt)
+	{
+		this.dimensions.forEach((dimID, dimension) ->
+		{
+			String key = dimID.getLocation().toString();
+			if (nbt.contains(key, Constants.NBT.TAG_COMPOUND))
+			{
+				dimension.readPowerStates(nbt.getCompound(key));
+			}
+		});
 	}
+	
+	// written on the server thread with the rest of the main file, each dimension's power states are a few exceptions per owner
+	private CompoundNBT writePowerStates()
+	{
+		CompoundNBT nbt = new CompoundNBT();
+		this.dimensions.forEach((dimID, dimension) -> nbt.put(dimID.getLocation().toString(), dimension.writePowerStates(new CompoundNBT())));
+		return nbt;
+	}
+	
+	// each dimension's blocks are saved in data/clockout/<dimension namespace>/<dimension path>.dat
+	public static Path getDimensionFile(Path directory, RegistryKey<World> dimID)
+	{
+		ResourceLocation location = dimID.getLocation();
+		return directory.resolve(Clockout.MODID).resolve(location.getNamespace()).resolve(location.getPath() + ".dat");
+	}
+	
+	// applies the changes recorded since the data was last saved in full
+	private void replayJournals()
+	{
+		MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+		if (server != null)
+		{
+			try
+			{
+				Path directory = OwnershipJournal.getDirectory(server);
+				long savedGeneration = this.journalGeneration;
+				// changes made from now on go to a new generation after every journal on disk, so they're replayed after those journals
+				// and never appended after a record that a crash cut off, even though the main file still has the older generation
+				List<Long> generations = OwnershipJournal.listGenerations(directory);
+				if (!generations.isEmpty())
+				{
+					this.journalGeneration = Math.max(this.journalGeneration, generations.get(generations.size() - 1) + 1);
+				}
+				int records = OwnershipJournal.replay(directory, savedGeneration, new OwnershipJournal.Visitor()
+				{
+					@Override
+					public void onPut(UUID playerID, RegistryKey<World> dimID, long packedPos)
+					{
+						OwnedClockoutBlocksData.this.putPackedBlock(playerID, dimID, packedPos);
+					}
 
+					@Override
+					public void onRemove(RegistryKey<World> dimID, long packedPos)
+					{
+						OwnedClockoutBlocksData.this.removePackedBlock(dimID, packedPos);
+					}
+				});
+				if (records > 0)
+				{
+					// make sure the replayed changes end up in the next full save even if journaling is disabled now
+					this.markDirty();
+				}
+			}
+			catch(IOException e)
+			{
+				Clockout.LOGGER.error("Failed to replay clockout journal, ownership changes since the last full save may be lost", e);
+			}
+		}
+	}
+
+	/**
+	 * Writes every dimension's blocks into the given compound, as older versions did.
+	 * Saving to disk goes through save(File) instead, which saves each dimension to its own file.
+	 * This doesn't start a new journal generation, so the current generation's journals are replayed on top of what was written here
+	 * if it's ever read back. Journal records put or remove a position outright, so replaying ones that were already applied is harmless.
+	 */
 	@Override
 	public CompoundNBT write(CompoundNBT nbt)
 	{
-		PLAYER_MAP_CODEC.encodeStart(NBTDynamicOps.INSTANCE, this.map)
-			.result()
-			.ifPresent(inbt -> nbt.put(PLAYERS, inbt));
+		IProfiler profiler = ClockoutMetrics.getProfiler();
+		profiler.startSection("clockout_write");
+		long startTime = System.nanoTime();
+		OwnershipSnapshot snapshot = OwnershipSnapshot.take(this.lastSnapshot, this.ownerDimensions, this.dimensions, this.changedOwners, this.changedChunks);
+		CompactOwnershipFormat.write(snapshot.getMap(), nbt);
+		writeData(nbt, this.journalGeneration, this.writeDeferredUpdates(), this.writePowerStates(), this.groups.write(new CompoundNBT()));
+		ClockoutMetrics.WRITE_NANOS.record(System.nanoTime() - startTime);
+		profiler.endSection();
 		return nbt;
 	}
+	
+	private static CompoundNBT writeData(CompoundNBT nbt, long journalGeneration, CompoundNBT deferred, CompoundNBT powerStates, CompoundNBT groups)
+	{
+		nbt.putLong(JOURNAL_GENERATION, journalGeneration);
+		nbt.put(DEFERRED, deferred);
+		nbt.put(POWER_STATES, powerStates);
+		nbt.put(GROUPS, groups);
+		return nbt;
+	}
+	
+	// power changes that haven't been applied yet are saved as deferred updates, so they get reconciled after a restart
+	private CompoundNBT writeDeferredUpdates()
+	{
+		return this.scheduler.writeAsDeferred(this.deferredUpdates.write(new CompoundNBT()));
+	}
+	
+	// everything journaled so far is about to be saved, so start a new journal generation
+	// the old journals are deleted once the save is on disk
+	private long startNewJournalGeneration()
+	{
+		this.journalGeneration++;
+		if (this.journal != null)
+		{
+			MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+			this.closeJournal();
+			if (server != null)
+			{
+				this.openJournal(server);
+			}
+		}
+		return this.journalGeneration;
+	}
+	
+	/**
+	 * Same as the base implementation, except that each dimension that changed since it was last saved is saved to its own file,
+	 * and the main file only lists the dimensions. Old journals are deleted once the save is known to be on disk.
+	 * If background saving is enabled, only a snapshot of the data is taken on the server thread
+	 * while encoding it and writing it to disk happens on the background saver thread.
+	 * The data can keep changing while a background save is in flight.
+	 */
+	@Override
+	public void save(File file)
+	{
+		this.save(file, Clockout.config.background_saving.get());
+	}
+	
+	void save(File file, boolean inBackground)
+	{
+		if (this.isServerStopping)
+		{
+			// e.g. the players the server logged out after it started stopping
+			this.applyPresenceWithoutTicks();
+		}
+		if (this.isDirty())
+		{
+			// only the snapshot is taken here when saving in the background, encoding is timed separately
+			IProfiler profiler = ClockoutMetrics.getProfiler();
+			profiler.startSection("clockout_write");
+			long startTime = System.nanoTime();
+			long generation = this.startNewJournalGeneration();
+			CompoundNBT deferred = this.writeDeferredUpdates();
+			CompoundNBT powerStates = this.writePowerStates();
+			// groups are small and only change through commands, so they're written here rather than snapshotted
+			CompoundNBT groups = this.groups.write(new CompoundNBT());
+			OwnershipSnapshot snapshot = this.takeSnapshot();
+			Set<RegistryKey<World>> savedDimensions = new HashSet<>(this.dimensions.keySet());
+			Set<RegistryKey<World>> changedDimensions = this.changedDimensions;
+			this.changedDimensions = new HashSet<>();
+			if (this.needsFullSave)
+			{
+				this.needsFullSave = false;
+				changedDimensions.addAll(savedDimensions);
+			}
+			savedDimensions.addAll(this.unreadableDimensions);
+			for (RegistryKey<World> dimID : this.unreadableDimensions)
+			{
+				if (changedDimensions.remove(dimID))
+				{
+					Clockout.LOGGER.error("Not saving changes to clockout blocks in dimension {}, its file couldn't be read when the server started. "
+						+ "Restore or remove {} and restart the server", dimID.getLocation(), getDimensionFile(file.toPath().getParent(), dimID));
+				}
+			}
+			Runnable task = () -> this.writeFiles(file.toPath(), snapshot, generation, deferred, powerStates, groups, savedDimensions, changedDimensions);
+			if (inBackground)
+			{
+				BackgroundSaver.submit(task);
+			}
+			else
+			{
+				task.run();
+			}
+			this.setDirty(false);
+			ClockoutMetrics.WRITE_NANOS.record(System.nanoTime() - startTime);
+			profiler.endSection();
+		}
+	}
+	
+	@Override
+	public boolean isDirty()
+	{
+		if (this.saveFailed)
+		{
+			this.saveFailed = false;
+			this.markDirty();
+		}
+		return super.isDirty();
+	}
+	
+	// takes an immutable snapshot of the ownership data and publishes it to ClockoutQueries
+	private OwnershipSnapshot takeSnapshot()
+	{
+		OwnershipSnapshot snapshot = OwnershipSnapshot.take(this.lastSnapshot, this.ownerDimensions, this.dimensions, this.changedOwners, this.changedChunks);
+		this.lastSnapshot = snapshot;
+		this.changedOwners = new HashSet<>();
+		this.changedChunks = new HashMap<>();
+		this.ticksSinceSnapshot = 0;
+		ClockoutQueries.publish(snapshot);
+		return snapshot;
+	}
+	
+	// may be called on the background saver thread, so this mustn't touch anything but the arguments, needsFullSave, and saveFailed
+	private void writeFiles(Path path, OwnershipSnapshot snapshot, long journalGeneration, CompoundNBT deferred, CompoundNBT powerStates, CompoundNBT groups,
+		Set<RegistryKey<World>> savedDimensions, Set<RegistryKey<World>> changedDimensions)
+	{
+		Path directory = path.getParent();
+		try
+		{
+			// the dimensions are written before the main file that lists them, so if we fail partway through,
+			// the main file still has the previous journal generation and the journals are replayed on top of whatever got written
+			for (RegistryKey<World> dimID : changedDimensions)
+			{
+				Path dimensionPath = getDimensionFile(directory, dimID);
+				if (savedDimensions.contains(dimID))
+				{
+					long startTime = System.nanoTime();
+					CompoundNBT dimensionNBT = CompactOwnershipFormat.writeDimension(snapshot.getPositionsIn(dimID), new CompoundNBT());
+					ClockoutMetrics.SAVE_ENCODE_NANOS.record(System.nanoTime() - startTime);
+					writeCompressedFile(dimensionNBT, dimensionPath);
+				}
+				else
+				{
+					Files.deleteIfExists(dimensionPath);
+				}
+			}
+			
+			ListNBT dimensionList = new ListNBT();
+			savedDimensions.forEach(dimID -> dimensionList.add(StringNBT.valueOf(dimID.getLocation().toString())));
+			CompoundNBT data = writeData(new CompoundNBT(), journalGeneration, deferred, powerStates, groups);
+			data.put(DIMENSIONS, dimensionList);
+			writeCompressedFile(data, path);
+			OwnershipJournal.deleteBefore(directory, journalGeneration);
+		}
+		catch(IOException e)
+		{
+			Clockout.LOGGER.error("Could not save clockout data", e);
+			// needsFullSave has to be set before saveFailed, so the next save sees it
+			this.needsFullSave = true;
+			this.saveFailed = true;
+		}
+	}
+	
+	private static void writeCompressedFile(CompoundNBT data, Path path) throws IOException
+	{
+		CompoundNBT nbt = new CompoundNBT();
+		nbt.put("data", data);
+		nbt.putInt("DataVersion", SharedConstants.getVersion().getWorldVersion());
+		// write to a temporary file first so a crash mid-write doesn't leave a truncated file behind
+		Files.createDirectories(path.getParent());
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		CompressedStreamTools.writeCompressed(nbt, tempPath.toFile());
+		try
+		{
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	public static LongSet packPositions(List<BlockPos> positions)
+	{
+		LongSet set = new LongOpenHashSet(positions.size());
+		positions.forEach(pos -> set.add(pos.toLong()));
+		return set;
+	}
+	
+	public static List<BlockPos> unpackPositions(LongSet set)
+	{
+		List<BlockPos> positions = new ArrayList<>(set.size());
+		LongIterator iterator = set.iterator();
+		while (iterator.hasNext())
+		{
+			positions.add(BlockPos.fromLong(iterator.nextLong()));
+		}
+		return positions;
+	}
 
 }
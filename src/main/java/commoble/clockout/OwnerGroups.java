@@ -0,0 +1,311 @@
+package commoble.clockout;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * Groups of players that own clockout blocks together. A group's blocks are powered while any of its members are online.
+ * Groups have their own random UUIDs, so group-owned blocks are stored the same way as player-owned blocks.
+ * The number of online members of each group is counted, so the group's blocks only need to be updated
+ * when its first member logs in or its last member logs out, not every time a member logs in or out.
+ * Must be used on the server thread.
+ */
+public class OwnerGroups
+{
+	public static final String GROUPS = "groups";
+	public static final String SELECTIONS = "selections";
+	public static final String ID = "id";
+	public static final String NAME = "name";
+	public static final String MEMBERS = "members";
+	public static final String PLAYER = "player";
+	public static final String GROUP = "group";
+
+	@FunctionalInterface
+	public static interface OnlineStateListener
+	{
+		/** Called when a group's first member logs in or its last member logs out, or an online group is deleted **/
+		void onGroupOnlineStateChanged(UUID groupID, boolean isOnlineNow);
+	}
+
+	private final OnlineStateListener listener;
+
+	private final Map<UUID, Group> groups = new HashMap<>();
+	private final Map<String, UUID> groupsByName = new HashMap<>();
+	private final Map<UUID, Set<UUID>> groupsByMember = new HashMap<>();
+
+	// the group that each player's newly placed clockout blocks will belong to, players without one own their blocks themselves
+	private final Map<UUID, UUID> selectedGroups = new HashMap<>();
+
+	// number of online members of each group that has any, not serialized
+	private final Object2IntMap<UUID> onlineMembers = new Object2IntOpenHashMap<>();
+
+	public OwnerGroups(OnlineStateListener listener)
+	{
+		this.listener = listener;
+	}
+
+	public boolean isGroup(@Nullable UUID ownerID)
+	{
+		return ownerID != null && this.groups.containsKey(ownerID);
+	}
+
+	public boolean isOnline(@Nonnull UUID groupID)
+	{
+		return this.onlineMembers.getInt(groupID) > 0;
+	}
+
+	public Optional<UUID> getGroupID(String name)
+	{
+		return Optional.ofNullable(this.groupsByName.get(name));
+	}
+
+	public Optional<String> getName(@Nonnull UUID groupID)
+	{
+		return Optional.ofNullable(this.groups.get(groupID)).map(group -> group.name);
+	}
+
+	public Collection<String> getNames()
+	{
+		return Collections.unmodifiableSet(this.groupsByName.keySet());
+	}
+
+	public Set<UUID> getMembers(@Nonnull UUID groupID)
+	{
+		Group group = this.groups.get(groupID);
+		return group == null ? Collections.emptySet() : Collections.unmodifiableSet(group.members);
+	}
+
+	public boolean isMember(@Nonnull UUID groupID, @Nonnull UUID playerID)
+	{
+		Group group = this.groups.get(groupID);
+		return group != null && group.members.contains(playerID);
+	}
+
+	// returns the new group's ID, or empty if there's already a group with that name
+	public Optional<UUID> create(String name)
+	{
+		if (this.groupsByName.containsKey(name))
+		{
+			return Optional.empty();
+		}
+		UUID groupID = UUID.randomUUID();
+		this.groups.put(groupID, new Group(groupID, name));
+		this.groupsByName.put(name, groupID);
+		return Optional.of(groupID);
+	}
+
+	// the group's blocks stay where they are, but they won't be powered again
+	public boolean delete(@Nonnull UUID groupID)
+	{
+		Group group = this.groups.remove(groupID);
+		if (group == null)
+		{
+			return false;
+		}
+		this.groupsByName.remove(group.name);
+		for (UUID member : group.members)
+		{
+			this.removeFromMemberIndex(groupID, member);
+		}
+		this.selectedGroups.values().removeIf(groupID::equals);
+		if (this.onlineMembers.removeInt(groupID) > 0)
+		{
+			this.listener.onGroupOnlineStateChanged(groupID, false);
+		}
+		return true;
+	}
+
+	// returns false if the group doesn't exist or the player was already a member
+	public boolean addMember(@Nonnull UUID groupID, @Nonnull UUID playerID, boolean isPlayerOnline)
+	{
+		Group group = this.groups.get(groupID);
+		if (group == null || !group.members.add(playerID))
+		{
+			return false;
+		}
+		this.groupsByMember.computeIfAbsent(playerID, id -> new HashSet<>()).add(groupID);
+		if (isPlayerOnline)
+		{
+			this.changeOnlineMembers(groupID, 1);
+		}
+		return true;
+	}
+
+	// returns false if the group doesn't exist or the player wasn't a member
+	public boolean removeMember(@Nonnull UUID groupID, @Nonnull UUID playerID, boolean isPlayerOnline)
+	{
+		Group group = this.groups.get(groupID);
+		if (group == null || !group.members.remove(playerID))
+		{
+			return false;
+		}
+		this.removeFromMemberIndex(groupID, playerID);
+		this.selectedGroups.remove(playerID, groupID);
+		if (isPlayerOnline)
+		{
+			this.changeOnlineMembers(groupID, -1);
+		}
+		return true;
+	}
+
+	public void onMemberLoginStateChange(@Nonnull UUID playerID, boolean isLoggedInNow)
+	{
+		Set<UUID> memberGroups = this.groupsByMember.get(playerID);
+		if (memberGroups != null)
+		{
+			for (UUID groupID : memberGroups)
+			{
+				this.changeOnlineMembers(groupID, isLoggedInNow ? 1 : -1);
+			}
+		}
+	}
+
+	// the listener is only told about 0<->1 transitions, so one member logging in while another is online doesn't update any blocks
+	private void changeOnlineMembers(UUID groupID, int change)
+	{
+		int previous = this.onlineMembers.getInt(groupID);
+		int current = Math.max(0, previous + change);
+		if (current == 0)
+		{
+			this.onlineMembers.removeInt(groupID);
+		}
+		else
+		{
+			this.onlineMembers.put(groupID, current);
+		}
+		if ((previous == 0) != (current == 0))
+		{
+			this.listener.onGroupOnlineStateChanged(groupID, current > 0);
+		}
+	}
+
+	private void removeFromMemberIndex(UUID groupID, UUID playerID)
+	{
+		Set<UUID> memberGroups = this.groupsByMember.get(playerID);
+		if (memberGroups != null)
+		{
+			memberGroups.remove(groupID);
+			if (memberGroups.isEmpty())
+			{
+				this.groupsByMember.remove(playerID);
+			}
+		}
+	}
+
+	// the player must be a member of the group, or null to place blocks for themselves again
+	public boolean select(@Nonnull UUID playerID, @Nullable UUID groupID)
+	{
+		if (groupID == null)
+		{
+			this.selectedGroups.remove(playerID);
+			return true;
+		}
+		if (!this.isMember(groupID, playerID))
+		{
+			return false;
+		}
+		this.selectedGroups.put(playerID, groupID);
+		return true;
+	}
+
+	// returns the UUID that should own a clockout block placed by the given player
+	public UUID getPlacementOwner(@Nonnull UUID playerID)
+	{
+		UUID groupID = this.selectedGroups.get(playerID);
+		return groupID != null && this.isMember(groupID, playerID) ? groupID : playerID;
+	}
+
+	public CompoundNBT write(CompoundNBT nbt)
+	{
+		ListNBT groupList = new ListNBT();
+		for (Group group : this.groups.values())
+		{
+			CompoundNBT groupNBT = new CompoundNBT();
+			groupNBT.putUniqueId(ID, group.id);
+			groupNBT.putString(NAME, group.name);
+			ListNBT members = new ListNBT();
+			for (UUID member : group.members)
+			{
+				members.add(NBTUtil.func_240626_a_(member));
+			}
+			groupNBT.put(MEMBERS, members);
+			groupList.add(groupNBT);
+		}
+		ListNBT selections = new ListNBT();
+		this.selectedGroups.forEach((playerID, groupID) ->
+		{
+			CompoundNBT selection = new CompoundNBT();
+			selection.putUniqueId(PLAYER, playerID);
+			selection.putUniqueId(GROUP, groupID);
+			selections.add(selection);
+		});
+		nbt.put(GROUPS, groupList);
+		nbt.put(SELECTIONS, selections);
+		return nbt;
+	}
+
+	// replaces all groups, counting the online members again from the players that are online now
+	public void read(CompoundNBT nbt, Predicate<UUID> isPlayerOnline)
+	{
+		this.groups.clear();
+		this.groupsByName.clear();
+		this.groupsByMember.clear();
+		this.selectedGroups.clear();
+		this.onlineMembers.clear();
+		ListNBT groupList = nbt.getList(GROUPS, Constants.NBT.TAG_COMPOUND);
+		for (int i=0; i<groupList.size(); i++)
+		{
+			CompoundNBT groupNBT = groupList.getCompound(i);
+			Group group = new Group(groupNBT.getUniqueId(ID), groupNBT.getString(NAME));
+			this.groups.put(group.id, group);
+			this.groupsByName.put(group.name, group.id);
+			for (INBT member : groupNBT.getList(MEMBERS, Constants.NBT.TAG_INT_ARRAY))
+			{
+				UUID playerID = NBTUtil.readUniqueId(member);
+				group.members.add(playerID);
+				this.groupsByMember.computeIfAbsent(playerID, id -> new HashSet<>()).add(group.id);
+				if (isPlayerOnline.test(playerID))
+				{
+					this.onlineMembers.put(group.id, this.onlineMembers.getInt(group.id) + 1);
+				}
+			}
+		}
+		ListNBT selections = nbt.getList(SELECTIONS, Constants.NBT.TAG_COMPOUND);
+		for (int i=0; i<selections.size(); i++)
+		{
+			CompoundNBT selection = selections.getCompound(i);
+			this.select(selection.getUniqueId(PLAYER), selection.getUniqueId(GROUP));
+		}
+	}
+
+	static class Group
+	{
+		final UUID id;
+		final String name;
+		final Set<UUID> members = new HashSet<>();
+
+		Group(UUID id, String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+	}
+}
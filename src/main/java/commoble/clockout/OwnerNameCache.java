@@ -0,0 +1,158 @@
+package commoble.clockout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import com.mojang.authlib.GameProfile;
+
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * Cache of clockout owners' display names, so that inspecting blocks doesn't look up profiles on the server thread.
+ * Names that aren't cached are looked up on a background thread and handed back to the server thread when found.
+ * Names that couldn't be found are cached too, so unknown owners don't cause a lookup every time.
+ * Must only be used on the server thread.
+ */
+public class OwnerNameCache
+{
+	private static final ExecutorService LOOKUP_EXECUTOR = Executors.newSingleThreadExecutor(runnable ->
+	{
+		Thread thread = new Thread(runnable, "Clockout Owner Lookup");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private static @Nullable OwnerNameCache instance = null;
+	
+	private final MinecraftServer server;
+	// access-ordered so the least recently used names are evicted first
+	private final Map<UUID, CachedName> names = new LinkedHashMap<>(16, 0.75F, true);
+	// callbacks waiting for lookups that are in flight, so we don't look up the same owner twice at once
+	private final Map<UUID, List<Consumer<Optional<String>>>> pendingLookups = new HashMap<>();
+	
+	private static class CachedName
+	{
+		private final Optional<String> name;
+		private final long expiryMillis;
+		
+		private CachedName(Optional<String> name, long expiryMillis)
+		{
+			this.name = name;
+			this.expiryMillis = expiryMillis;
+		}
+	}
+	
+	private OwnerNameCache(MinecraftServer server)
+	{
+		this.server = server;
+	}
+	
+	public static OwnerNameCache get(MinecraftServer server)
+	{
+		if (instance == null || instance.server != server)
+		{
+			instance = new OwnerNameCache(server);
+		}
+		return instance;
+	}
+	
+	public static void clear()
+	{
+		instance = null;
+	}
+	
+	/**
+	 * Calls the callback with the owner's name, or an empty optional if the owner's name couldn't be found.
+	 * If the name is cached, the callback is called immediately;
+	 * otherwise, it's called later on the server thread once the name has been looked up.
+	 * @param ownerID The UUID of the owner
+	 * @param callback The callback to call with the owner's name
+	 * @return true if the callback was called immediately, false if the name is being looked up
+	 */
+	public boolean lookup(UUID ownerID, Consumer<Optional<String>> callback)
+	{
+		CachedName cachedName = this.names.get(ownerID);
+		if (cachedName != null)
+		{
+			if (cachedName.expiryMillis > System.currentTimeMillis())
+			{
+				callback.accept(cachedName.name);
+				return true;
+			}
+			this.names.remove(ownerID);
+		}
+		
+		List<Consumer<Optional<String>>> callbacks = this.pendingLookups.get(ownerID);
+		if (callbacks == null)
+		{
+			callbacks = new ArrayList<>();
+			this.pendingLookups.put(ownerID, callbacks);
+			CompletableFuture.supplyAsync(() -> this.findName(ownerID), LOOKUP_EXECUTOR)
+				.exceptionally(e -> Optional.empty())
+				.thenAcceptAsync(name -> this.onLookupFinished(ownerID, name), this.server);
+		}
+		callbacks.add(callback);
+		return false;
+	}
+	
+	/**
+	 * Returns the owner's name if it's cached, without waiting for a lookup. If it isn't cached, it's looked up in the background
+	 * so that it's cached the next time it's asked for.
+	 * @param ownerID The UUID of the owner
+	 * @return The owner's name, or an empty optional if it isn't cached or couldn't be found
+	 */
+	public Optional<String> getCachedName(UUID ownerID)
+	{
+		CachedName cachedName = this.names.get(ownerID);
+		if (cachedName != null && cachedName.expiryMillis > System.currentTimeMillis())
+		{
+			return cachedName.name;
+		}
+		this.lookup(ownerID, name -> {});
+		return Optional.empty();
+	}
+	
+	// runs on the lookup thread
+	private Optional<String> findName(UUID ownerID)
+	{
+		GameProfile profile = this.server.getPlayerProfileCache().getProfileByUUID(ownerID);
+		if (profile == null)
+		{
+			// not in the local cache, ask the session service (this won't find anything on an offline server)
+			profile = this.server.getMinecraftSessionService().fillProfileProperties(new GameProfile(ownerID, null), false);
+		}
+		return Optional.ofNullable(profile).map(GameProfile::getName);
+	}
+	
+	// runs on the server thread
+	private void onLookupFinished(UUID ownerID, Optional<String> name)
+	{
+		long ttlMillis = Clockout.config.owner_name_cache_seconds.get() * 1000L;
+		this.names.put(ownerID, new CachedName(name, System.currentTimeMillis() + ttlMillis));
+		int maxSize = Clockout.config.owner_name_cache_size.get();
+		Iterator<UUID> oldestNames = this.names.keySet().iterator();
+		while (this.names.size() > maxSize && oldestNames.hasNext())
+		{
+			oldestNames.next();
+			oldestNames.remove();
+		}
+		
+		List<Consumer<Optional<String>>> callbacks = this.pendingLookups.remove(ownerID);
+		if (callbacks != null)
+		{
+			callbacks.forEach(callback -> callback.accept(name));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package commoble.clockout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.mojang.datafixers.util.Pair;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * A batch of ownership changes for integrations that place or clear many clockout blocks at once, e.g. schematic pastes and world editors.
+ * Build the batch, then apply it with OwnedClockoutBlocksData::apply. Applying a batch looks up each dimension once
+ * and marks the data dirty once, instead of once per block like putBlock and removeBlock do.
+ * Changes to positions are applied in the order they were added, followed by owner transfers in the order they were added.
+ * Batches aren't thread-safe, but can be built on any thread as long as they're applied on the server thread.
+ */
+public class OwnershipBatch
+{
+	private final Map<RegistryKey<World>, DimensionChanges> changes = new LinkedHashMap<>();
+	private final List<Pair<UUID, UUID>> transfers = new ArrayList<>();
+	private int size = 0;
+
+	// gives the position to the owner, taking it away from its previous owner if it had one
+	public OwnershipBatch put(@Nonnull UUID ownerID, @Nonnull RegistryKey<World> dimID, @Nonnull BlockPos pos)
+	{
+		this.getChanges(dimID).add(pos.toLong(), ownerID);
+		return this;
+	}
+
+	// takes the position away from whoever owns it
+	public OwnershipBatch remove(@Nonnull RegistryKey<World> dimID, @Nonnull BlockPos pos)
+	{
+		this.getChanges(dimID).add(pos.toLong(), null);
+		return this;
+	}
+
+	// gives all of one owner's clockout blocks in every dimension to another owner, e.g. a player or a group
+	public OwnershipBatch transferAll(@Nonnull UUID fromOwnerID, @Nonnull UUID toOwnerID)
+	{
+		this.transfers.add(Pair.of(fromOwnerID, toOwnerID));
+		this.size++;
+		return this;
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	private DimensionChanges getChanges(RegistryKey<World> dimID)
+	{
+		this.size++;
+		return this.changes.computeIfAbsent(dimID, key -> new DimensionChanges());
+	}
+
+	Map<RegistryKey<World>, DimensionChanges> getChanges()
+	{
+		return Collections.unmodifiableMap(this.changes);
+	}
+
+	List<Pair<UUID, UUID>> getTransfers()
+	{
+		return Collections.unmodifiableList(this.transfers);
+	}
+
+	// the changes to one dimension's positions, kept as parallel lists so that large batches don't need an object per change
+	static class DimensionChanges
+	{
+		private final LongArrayList positions = new LongArrayList();
+		// null owners are removals
+		private final List<UUID> owners = new ArrayList<>();
+
+		private void add(long packedPos, @Nullable UUID ownerID)
+		{
+			this.positions.add(packedPos);
+			this.owners.add(ownerID);
+		}
+
+		int size()
+		{
+			return this.positions.size();
+		}
+
+		long getPosition(int index)
+		{
+			return this.positions.getLong(index);
+		}
+
+		@Nullable UUID getOwner(int index)
+		{
+			return this.owners.get(index);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package commoble.clockout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+import net.minecraft.world.storage.FolderName;
+
+/**
+ * Append-only log of ownership changes made since the last full save of the ownership data.
+ * Each full save starts a new journal generation, and the saved data records the generation it was saved at;
+ * when the data is loaded, every journal from that generation onward is replayed on top of it.
+ * Journals are never appended to once they've been closed, changes made after loading go to a new generation,
+ * so a record that was cut off partway through by a crash is always at the very end of its journal.
+ * Must only be used on the server thread.
+ */
+public class OwnershipJournal implements AutoCloseable
+{
+	public static final String FILE_PREFIX = Clockout.MODID + "_journal_";
+	public static final String FILE_SUFFIX = ".dat";
+	
+	public static final byte PUT = 1;
+	public static final byte REMOVE = 2;
+	
+	private final DataOutputStream output;
+	private final long generation;
+	private int recordCount = 0;
+	private boolean needsFlush = false;
+	
+	public static interface Visitor
+	{
+		void onPut(UUID playerID, RegistryKey<World> dimID, long packedPos);
+		void onRemove(RegistryKey<World> dimID, long packedPos);
+	}
+	
+	private OwnershipJournal(DataOutputStream output, long generation)
+	{
+		this.output = output;
+		this.generation = generation;
+	}
+	
+	// the journal lives next to the ownership data in the overworld's data folder
+	public static Path getDirectory(MinecraftServer server)
+	{
+		return server.func_240776_a_(FolderName.DOT).resolve("data");
+	}
+	
+	public static Path getFile(Path directory, long generation)
+	{
+		return directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+	}
+	
+	/**
+	 * Starts the journal for the given generation
+	 * @throws IOException If the journal already exists, or can't be created
+	 */
+	public static OwnershipJournal open(Path directory, long generation) throws IOException
+	{
+		Files.createDirectories(directory);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+			getFile(directory, generation),
+			StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+		return new OwnershipJournal(output, generation);
+	}
+	
+	public long getGeneration()
+	{
+		return this.generation;
+	}
+	
+	public int getRecordCount()
+	{
+		return this.recordCount;
+	}
+	
+	public void appendPut(UUID playerID, RegistryKey<World> dimID, long packedPos) throws IOException
+	{
+		this.output.writeByte(PUT);
+		this.output.writeLong(playerID.getMostSignificantBits());
+		this.output.writeLong(playerID.getLeastSignificantBits());
+		this.output.writeUTF(dimID.getLocation().toString());
+		this.output.writeLong(packedPos);
+		this.onRecordAppended();
+	}
+	
+	public void appendRemove(RegistryKey<World> dimID, long packedPos) throws IOException
+	{
+		this.output.writeByte(REMOVE);
+		this.output.writeUTF(dimID.getLocation().toString());
+		this.output.writeLong(packedPos);
+		this.onRecordAppended();
+	}
+	
+	private void onRecordAppended()
+	{
+		this.recordCount++;
+		this.needsFlush = true;
+	}
+	
+	// called once per tick rather than once per record so bursts of changes are written together
+	public void flush() throws IOException
+	{
+		if (this.needsFlush)
+		{
+			this.output.flush();
+			this.needsFlush = false;
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		this.output.close();
+	}
+	
+	/**
+	 * Replays every journal in the directory from the given generation onward, oldest first.
+	 * A truncated record at the end of a journal (e.g. from a crash mid-write) is ignored, and so is everything
+	 * after a record that can't be read; the journals after it are still replayed.
+	 * @return The number of records replayed
+	 */
+	public static int replay(Path directory, long fromGeneration, Visitor visitor) throws IOException
+	{
+		int records = 0;
+		for (long generation : listGenerations(directory))
+		{
+			if (generation >= fromGeneration)
+			{
+				try (InputStream stream = Files.newInputStream(getFile(directory, generation)))
+				{
+					records += replay(new DataInputStream(new BufferedInputStream(stream)), generation, visitor);
+				}
+			}
+		}
+		return records;
+	}
+	
+	private static int replay(DataInputStream input, long generation, Visitor visitor) throws IOException
+	{
+		int records = 0;
+		try
+		{
+			while (true)
+			{
+				byte op = input.readByte();
+				if (op == PUT)
+				{
+					UUID playerID = new UUID(input.readLong(), input.readLong());
+					RegistryKey<World> dimID = readDimension(input);
+					long packedPos = input.readLong();
+					if (dimID == null)
+					{
+						return onUnreadableRecord(generation, records);
+					}
+					visitor.onPut(playerID, dimID, packedPos);
+				}
+				else if (op == REMOVE)
+				{
+					RegistryKey<World> dimID = readDimension(input);
+					long packedPos = input.readLong();
+					if (dimID == null)
+					{
+						return onUnreadableRecord(generation, records);
+					}
+					visitor.onRemove(dimID, packedPos);
+				}
+				else
+				{
+					return onUnreadableRecord(generation, records);
+				}
+				records++;
+			}
+		}
+		catch(EOFException e)
+		{
+			return records;
+		}
+	}
+	
+	// the rest of a journal can't be trusted after a record that doesn't make sense, so it's treated like a truncated record
+	private static int onUnreadableRecord(long generation, int records)
+	{
+		Clockout.LOGGER.warn("Clockout journal {} is corrupt after record {}, ignoring the rest of it", generation, records);
+		return records;
+	}
+	
+	// returns null if the dimension ID isn't a valid resource location
+	private static @Nullable RegistryKey<World> readDimension(DataInputStream input) throws IOException
+	{
+		ResourceLocation location = ResourceLocation.tryCreate(input.readUTF());
+		return location == null ? null : RegistryKey.getOrCreateKey(Registry.WORLD_KEY, location);
+	}
+	
+	/**
+	 * Deletes every journal older than the given generation, once a full save of that generation is on disk
+	 */
+	public static void deleteBefore(Path directory, long generation) throws IOException
+	{
+		for (long oldGeneration : listGenerations(directory))
+		{
+			if (oldGeneration < generation)
+			{
+				Files.deleteIfExists(getFile(directory, oldGeneration));
+			}
+		}
+	}
+	
+	public static List<Long> listGenerations(Path directory) throws IOException
+	{
+		List<Long> generations = new ArrayList<>();
+		if (Files.isDirectory(directory))
+		{
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX))
+			{
+				for (Path file : files)
+				{
+					String name = file.getFileName().toString();
+					try
+					{
+						generations.add(Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())));
+					}
+					catch(NumberFormatException e)
+					{
+						// not one of ours
+					}
+				}
+			}
+		}
+		generations.sort(null);
+		return generations;
+	}
+}
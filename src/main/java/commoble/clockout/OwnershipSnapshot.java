@@ -0,0 +1,220 @@
+package commoble.clockout;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import commoble.clockout.util.SortedLongArraySet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.world.World;
+
+/**
+ * Immutable copy of the player->dimension->positions ownership map, safe to read from any thread.
+ * Owners who haven't changed since the previous snapshot share their position sets with it, and the position sets of owners who have
+ * changed are split by chunk and only copy the chunks whose blocks were placed or removed in the meantime, see ChunkedPositionSet.
+ * Each chunk's positions are copied into a sorted array, which takes less memory than a hash set and is never changed afterward.
+ * The reverse index of positions to owners is built one dimension at a time, and dimensions that nobody's blocks changed in
+ * take their reverse index from the previous snapshot if it had already built it.
+ */
+public class OwnershipSnapshot
+{
+	public static final OwnershipSnapshot EMPTY = new OwnershipSnapshot(Collections.emptyMap());
+	
+	private final Map<UUID, Map<RegistryKey<World>, LongSet>> map;
+	
+	// derived views, built the first time they're asked for
+	// building the counts more than once on different threads is harmless, they're always the same
+	private final Map<RegistryKey<World>, Long2ObjectMap<UUID>> owners = new ConcurrentHashMap<>();
+	private volatile @Nullable Map<UUID, Integer> counts = null;
+	
+	private OwnershipSnapshot(Map<UUID, Map<RegistryKey<World>, LongSet>> map)
+	{
+		this.map = map;
+	}
+	
+	/**
+	 * Takes a snapshot of the live ownership data. Must be called on the thread that owns the live data.
+	 * @param previous The previous snapshot of the same data, or null to copy everything
+	 * @param ownerDimensions The live index of owners to the dimensions they own blocks in
+	 * @param dimensions The live ownership data of each dimension
+	 * @param changedOwners The owners whose positions changed since the previous snapshot was taken
+	 * @param changedChunks The chunks in each dimension whose positions changed since the previous snapshot was taken
+	 * @return A new snapshot
+	 */
+	public static OwnershipSnapshot take(@Nullable OwnershipSnapshot previous, Map<UUID, Set<RegistryKey<World>>> ownerDimensions, Map<RegistryKey<World>, DimensionOwnership> dimensions,
+		Set<UUID> changedOwners, Map<RegistryKey<World>, LongSet> changedChunks)
+	{
+		// the positions in the changed chunks, by dimension, owner, and chunk
+		Map<RegistryKey<World>, Map<UUID, Long2ObjectMap<SortedLongArraySet>>> changedPositions = new HashMap<>();
+		if (previous != null)
+		{
+			changedChunks.forEach((dimID, chunkKeys) ->
+			{
+				DimensionOwnership dimension = dimensions.get(dimID);
+				if (dimension != null)
+				{
+					changedPositions.put(dimID, getPositionsByOwner(dimension, chunkKeys));
+				}
+			});
+		}
+		Map<UUID, Map<RegistryKey<World>, LongSet>> map = new HashMap<>(ownerDimensions.size());
+		ownerDimensions.forEach((playerID, dimIDs) ->
+		{
+			Map<RegistryKey<World>, LongSet> previousSubMap = previous == null ? null : previous.map.get(playerID);
+			if (previousSubMap != null && !changedOwners.contains(playerID))
+			{
+				map.put(playerID, previousSubMap);
+			}
+			else
+			{
+				Map<RegistryKey<World>, LongSet> copy = new HashMap<>(dimIDs.size());
+				for (RegistryKey<World> dimID : dimIDs)
+				{
+					LongSet previousPositions = previousSubMap == null ? null : previousSubMap.get(dimID);
+					LongSet chunkKeys = changedChunks.get(dimID);
+					if (previousPositions == null)
+					{
+						copy.put(dimID, ChunkedPositionSet.copyOf(dimensions.get(dimID).getPositions(playerID)));
+					}
+					else if (chunkKeys == null)
+					{
+						copy.put(dimID, previousPositions);
+					}
+					else
+					{
+						Long2ObjectMap<SortedLongArraySet> positions = changedPositions.getOrDefault(dimID, Collections.emptyMap()).get(playerID);
+						copy.put(dimID, ((ChunkedPositionSet)previousPositions).withChunks(chunkKeys, positions == null ? Long2ObjectMaps.emptyMap() : positions));
+					}
+				}
+				map.put(playerID, Collections.unmodifiableMap(copy));
+			}
+		});
+		OwnershipSnapshot snapshot = new OwnershipSnapshot(Collections.unmodifiableMap(map));
+		if (previous != null)
+		{
+			// an owner's blocks can only have changed in the dimensions they owned blocks in before or own blocks in now
+			Set<RegistryKey<World>> changedDimensions = new HashSet<>();
+			for (UUID playerID : changedOwners)
+			{
+				Map<RegistryKey<World>, LongSet> previousSubMap = previous.map.get(playerID);
+				if (previousSubMap != null)
+				{
+					changedDimensions.addAll(previousSubMap.keySet());
+				}
+				Set<RegistryKey<World>> dimIDs = ownerDimensions.get(playerID);
+				if (dimIDs != null)
+				{
+					changedDimensions.addAll(dimIDs);
+				}
+			}
+			previous.owners.forEach((dimID, dimOwners) ->
+			{
+				if (!changedDimensions.contains(dimID))
+				{
+					snapshot.owners.put(dimID, dimOwners);
+				}
+			});
+		}
+		return snapshot;
+	}
+	
+	// groups the live positions in the given chunks by owner, so that each owner's position set can replace just those chunks
+	private static Map<UUID, Long2ObjectMap<SortedLongArraySet>> getPositionsByOwner(DimensionOwnership dimension, LongSet chunkKeys)
+	{
+		Map<UUID, Long2ObjectMap<SortedLongArraySet>> positionsByOwner = new HashMap<>();
+		Map<UUID, LongList> chunkPositions = new HashMap<>();
+		LongIterator chunkIterator = chunkKeys.iterator();
+		while (chunkIterator.hasNext())
+		{
+			long chunkKey = chunkIterator.nextLong();
+			LongIterator iterator = dimension.getPositionsInChunk(chunkKey).iterator();
+			while (iterator.hasNext())
+			{
+				long packedPos = iterator.nextLong();
+				chunkPositions.computeIfAbsent(dimension.getOwner(packedPos), id -> new LongArrayList()).add(packedPos);
+			}
+			chunkPositions.forEach((ownerID, positions) -> positionsByOwner.computeIfAbsent(ownerID, id -> new Long2ObjectOpenHashMap<>())
+				.put(chunkKey, SortedLongArraySet.wrap(positions.toLongArray())));
+			chunkPositions.clear();
+		}
+		return positionsByOwner;
+	}
+	
+	public Map<UUID, Map<RegistryKey<World>, LongSet>> getMap()
+	{
+		return this.map;
+	}
+	
+	public @Nullable UUID getOwner(RegistryKey<World> dimID, long packedPos)
+	{
+		return this.owners.computeIfAbsent(dimID, this::buildOwners).get(packedPos);
+	}
+	
+	// builds the reverse index of one dimension, never changed once it's built
+	private Long2ObjectMap<UUID> buildOwners(RegistryKey<World> dimID)
+	{
+		Long2ObjectMap<UUID> dimOwners = new Long2ObjectOpenHashMap<>();
+		this.map.forEach((playerID, subMap) ->
+		{
+			LongSet positions = subMap.get(dimID);
+			if (positions != null)
+			{
+				LongIterator iterator = positions.iterator();
+				while (iterator.hasNext())
+				{
+					dimOwners.put(iterator.nextLong(), playerID);
+				}
+			}
+		});
+		return dimOwners;
+	}
+	
+	public LongSet getPositions(UUID playerID, RegistryKey<World> dimID)
+	{
+		Map<RegistryKey<World>, LongSet> subMap = this.map.get(playerID);
+		LongSet positions = subMap == null ? null : subMap.get(dimID);
+		return positions == null ? LongSets.EMPTY_SET : positions;
+	}
+	
+	// returns the positions of every owner's blocks in the given dimension
+	public Map<UUID, LongSet> getPositionsIn(RegistryKey<World> dimID)
+	{
+		Map<UUID, LongSet> positions = new HashMap<>();
+		this.map.forEach((playerID, subMap) ->
+		{
+			LongSet blockSet = subMap.get(dimID);
+			if (blockSet != null)
+			{
+				positions.put(playerID, blockSet);
+			}
+		});
+		return positions;
+	}
+	
+	public Map<UUID, Integer> getCounts()
+	{
+		Map<UUID, Integer> counts = this.counts;
+		if (counts == null)
+		{
+			Map<UUID, Integer> newCounts = new HashMap<>(this.map.size());
+			this.map.forEach((playerID, subMap) -> newCounts.put(playerID, subMap.values().stream().mapToInt(LongSet::size).sum()));
+			counts = Collections.unmodifiableMap(newCounts);
+			this.counts = counts;
+		}
+		return counts;
+	}
+}
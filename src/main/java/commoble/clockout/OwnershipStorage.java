@@ -0,0 +1,75 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.nbt.CompoundNBT;
+
+/**
+ * Storage engine for who owns the clockout blocks in one dimension. DimensionOwnership keeps the chunk index and the
+ * recorded power states on top of it. Engines are chosen by name with the storage_engine config option, see OwnershipStorageEngines.
+ * Positions are packed by BlockPos::toLong. Engines are only used on one thread at a time and don't need to be thread-safe.
+ */
+public interface OwnershipStorage
+{
+	@Nullable UUID getOwner(long packedPos);
+
+	// returns a live view of the owner's positions, don't hold onto it
+	LongSet getPositions(@Nonnull UUID ownerID);
+
+	Set<UUID> getOwners();
+
+	int getBlockCount();
+
+	int getBlockCount(@Nonnull UUID ownerID);
+
+	/**
+	 * Gives the position to the owner, taking it away from its previous owner if it had one
+	 * @return The previous owner, or null if the position wasn't owned
+	 */
+	@Nullable UUID put(@Nonnull UUID ownerID, long packedPos);
+
+	/**
+	 * Gives all of one owner's positions to another owner at once
+	 * @return The positions that were given, don't hold onto it
+	 */
+	LongSet transfer(@Nonnull UUID fromOwnerID, @Nonnull UUID toOwnerID);
+
+	/**
+	 * @return The owner the position was taken away from, or null if the position wasn't owned
+	 */
+	@Nullable UUID remove(long packedPos);
+
+	/**
+	 * Writes every owner's positions in the same layout as the per-dimension files,
+	 * so that what an engine writes can be read by any other engine. The server saves from snapshots instead,
+	 * so that saving can happen off the server thread.
+	 */
+	default CompoundNBT write(CompoundNBT nbt)
+	{
+		Map<UUID, LongSet> positionsByOwner = new HashMap<>();
+		for (UUID ownerID : this.getOwners())
+		{
+			positionsByOwner.put(ownerID, this.getPositions(ownerID));
+		}
+		return CompactOwnershipFormat.writeDimension(positionsByOwner, nbt);
+	}
+
+	// adds the positions written by write to this engine
+	default void read(CompoundNBT nbt)
+	{
+		CompactOwnershipFormat.readDimension(nbt).forEach((ownerID, positions) ->
+		{
+			for (long packedPos : positions)
+			{
+				this.put(ownerID, packedPos);
+			}
+		});
+	}
+}
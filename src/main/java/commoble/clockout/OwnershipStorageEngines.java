@@ -0,0 +1,50 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Registry of ownership storage engines by name
+ */
+public class OwnershipStorageEngines
+{
+	public static final String HASH_NAME = "hash";
+	public static final String DENSE_NAME = "dense";
+
+	private static final Map<String, Supplier<? extends OwnershipStorage>> FACTORIES = new HashMap<>();
+
+	static
+	{
+		register(HASH_NAME, HashOwnershipStorage::new);
+		register(DENSE_NAME, DenseOwnershipStorage::new);
+	}
+
+	/**
+	 * Registers a storage engine that server operators can choose with the storage_engine config option.
+	 * Call this during mod construction or setup.
+	 * @param name The name of the engine, namespaced by modid is recommended
+	 * @param factory Creates an empty engine for each dimension
+	 */
+	public static synchronized void register(String name, Supplier<? extends OwnershipStorage> factory)
+	{
+		FACTORIES.put(name, factory);
+	}
+
+	public static synchronized boolean isRegistered(String name)
+	{
+		return FACTORIES.containsKey(name);
+	}
+
+	// returns the factory of the engine with the given name, or of the hash engine if there isn't one
+	public static synchronized Supplier<? extends OwnershipStorage> get(String name)
+	{
+		Supplier<? extends OwnershipStorage> factory = FACTORIES.get(name);
+		if (factory == null)
+		{
+			Clockout.LOGGER.error("Unknown clockout storage engine {}, using {} instead", name, HASH_NAME);
+			factory = FACTORIES.get(HASH_NAME);
+		}
+		return factory;
+	}
+}
@@ -0,0 +1,144 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import it.unimi.dsi.fastutil.longs.Long2BooleanLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.LongArrayNBT;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.SectionPos;
+import net.minecraft.world.World;
+
+/**
+ * Queue of pending clockout power changes, drained a limited amount at a time on the server tick
+ * so that a burst of logins or logouts doesn't land in a single tick.
+ * Pending changes are grouped by chunk section so that they can be applied to the world a section at a time.
+ * Must only be used on the server thread.
+ */
+public class PowerChangeScheduler
+{
+	// map of dimension IDs to packed section positions to packed positions in that section and the power state they should have,
+	// in the order they were scheduled
+	// scheduling a position that's already pending replaces its target state, so opposite transitions cancel out
+	private final Map<RegistryKey<World>, Long2ObjectLinkedOpenHashMap<Long2BooleanLinkedOpenHashMap>> pending = new HashMap<>();
+	private int size = 0;
+	
+	@FunctionalInterface
+	public static interface SectionConsumer
+	{
+		/**
+		 * Applies a batch of power changes in the same chunk section
+		 * @param dimID The dimension the section is in
+		 * @param positions Map of packed positions to the power state they should have, all in the same chunk section
+		 */
+		void apply(RegistryKey<World> dimID, Long2BooleanLinkedOpenHashMap positions);
+	}
+	
+	public static long getSection(long packedPos)
+	{
+		return SectionPos.asLong(BlockPos.unpackX(packedPos) >> 4, BlockPos.unpackY(packedPos) >> 4, BlockPos.unpackZ(packedPos) >> 4);
+	}
+	
+	public void schedule(RegistryKey<World> dimID, long packedPos, boolean shouldBePoweredNow)
+	{
+		Long2BooleanLinkedOpenHashMap positions = this.pending.computeIfAbsent(dimID, key -> new Long2ObjectLinkedOpenHashMap<>())
+			.computeIfAbsent(getSection(packedPos), key -> new Long2BooleanLinkedOpenHashMap());
+		if (!positions.containsKey(packedPos))
+		{
+			this.size++;
+		}
+		positions.put(packedPos, shouldBePoweredNow);
+	}
+	
+	public void scheduleAll(RegistryKey<World> dimID, LongCollection positions, boolean shouldBePoweredNow)
+	{
+		LongIterator iterator = positions.iterator();
+		while (iterator.hasNext())
+		{
+			this.schedule(dimID, iterator.nextLong(), shouldBePoweredNow);
+		}
+	}
+	
+	public int size()
+	{
+		return this.size;
+	}
+	
+	/**
+	 * Applies pending power changes a chunk section at a time, sections in the order they were first scheduled,
+	 * until the queue is empty or either budget runs out.
+	 * If the block budget runs out partway through a section, only part of that section is applied.
+	 * The time budget is checked between sections.
+	 * Each batch is removed from the queue before it's applied.
+	 * @param maxBlocks The maximum number of changes to apply, or 0 for no limit
+	 * @param maxMicroseconds The maximum amount of time to spend applying changes, or 0 for no limit
+	 * @param consumer Consumer that applies a batch of changes in the same section to the world
+	 * @return The number of changes that were applied
+	 */
+	public int drain(int maxBlocks, int maxMicroseconds, SectionConsumer consumer)
+	{
+		long deadline = maxMicroseconds > 0 ? System.nanoTime() + maxMicroseconds * 1000L : Long.MAX_VALUE;
+		int applied = 0;
+		Iterator<Map.Entry<RegistryKey<World>, Long2ObjectLinkedOpenHashMap<Long2BooleanLinkedOpenHashMap>>> dimensions = this.pending.entrySet().iterator();
+		while (dimensions.hasNext())
+		{
+			Map.Entry<RegistryKey<World>, Long2ObjectLinkedOpenHashMap<Long2BooleanLinkedOpenHashMap>> entry = dimensions.next();
+			RegistryKey<World> dimID = entry.getKey();
+			Long2ObjectLinkedOpenHashMap<Long2BooleanLinkedOpenHashMap> sections = entry.getValue();
+			while (!sections.isEmpty())
+			{
+				int remainingBlocks = maxBlocks > 0 ? maxBlocks - applied : Integer.MAX_VALUE;
+				if (remainingBlocks <= 0 || System.nanoTime() >= deadline)
+				{
+					return applied;
+				}
+				Long2BooleanLinkedOpenHashMap positions = sections.get(sections.firstLongKey());
+				Long2BooleanLinkedOpenHashMap batch;
+				if (positions.size() <= remainingBlocks)
+				{
+					batch = sections.removeFirst();
+				}
+				else
+				{
+					batch = new Long2BooleanLinkedOpenHashMap(remainingBlocks);
+					while (batch.size() < remainingBlocks)
+					{
+						long packedPos = positions.firstLongKey();
+						batch.put(packedPos, positions.removeFirstBoolean());
+					}
+				}
+				this.size -= batch.size();
+				applied += batch.size();
+				consumer.apply(dimID, batch);
+			}
+			dimensions.remove();
+		}
+		return applied;
+	}
+	
+	/**
+	 * Merges the pending positions into a compound of dimension IDs to packed positions, as written by DeferredChunkUpdates,
+	 * so that changes that haven't been applied yet are reconciled when their chunks load after a restart
+	 * @param nbt The compound to merge positions into
+	 * @return The same compound
+	 */
+	public CompoundNBT writeAsDeferred(CompoundNBT nbt)
+	{
+		this.pending.forEach((dimID, sections) ->
+		{
+			String key = dimID.getLocation().toString();
+			LongSet merged = new LongOpenHashSet(nbt.getLongArray(key));
+			sections.values().forEach(positions -> merged.addAll(positions.keySet()));
+			nbt.put(key, new LongArrayNBT(merged.toLongArray()));
+		});
+		return nbt;
+	}
+}
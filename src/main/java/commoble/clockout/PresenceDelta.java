@@ -0,0 +1,54 @@
+package commoble.clockout;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A batch of players who came online and players who went offline, delivered by a presence provider.
+ * If a player is in both sets, they went offline and came back online.
+ */
+public class PresenceDelta
+{
+	private final Set<UUID> online;
+	private final Set<UUID> offline;
+
+	private PresenceDelta(Set<UUID> online, Set<UUID> offline)
+	{
+		this.online = online;
+		this.offline = offline;
+	}
+
+	public static PresenceDelta of(Collection<UUID> online, Collection<UUID> offline)
+	{
+		return new PresenceDelta(ImmutableSet.copyOf(online), ImmutableSet.copyOf(offline));
+	}
+
+	public static PresenceDelta online(UUID playerID)
+	{
+		return new PresenceDelta(Collections.singleton(playerID), Collections.emptySet());
+	}
+
+	public static PresenceDelta offline(UUID playerID)
+	{
+		return new PresenceDelta(Collections.emptySet(), Collections.singleton(playerID));
+	}
+
+	public Set<UUID> getOnline()
+	{
+		return this.online;
+	}
+
+	public Set<UUID> getOffline()
+	{
+		return this.offline;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.online.isEmpty() && this.offline.isEmpty();
+	}
+}
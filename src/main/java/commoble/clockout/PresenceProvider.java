@@ -0,0 +1,30 @@
+package commoble.clockout;
+
+import java.util.function.Consumer;
+
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * Decides which players count as online for powering their clockout blocks.
+ * The provider is chosen by the presence_provider config option when the server starts,
+ * and other mods can add their own with {@link PresenceProviders#register}.
+ * start, tick and stop are called on the server thread, but deltas can be delivered from any thread.
+ * Deltas are queued and applied together on the next server tick.
+ */
+public interface PresenceProvider
+{
+	/**
+	 * Called when the server starts. Nobody is online until the provider delivers a delta saying otherwise.
+	 * @param server The server that started
+	 * @param sink Accepts batches of presence changes, from any thread
+	 */
+	void start(MinecraftServer server, Consumer<PresenceDelta> sink);
+
+	/** Called at the end of every server tick while the provider is active **/
+	default void tick(MinecraftServer server)
+	{
+	}
+
+	/** Called when the server stops, the provider mustn't deliver any more deltas after this **/
+	void stop(MinecraftServer server);
+}
@@ -0,0 +1,73 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * Registry of presence providers by name, and the provider that's active while the server is running.
+ */
+public class PresenceProviders
+{
+	public static final String VANILLA_NAME = "vanilla";
+	public static final String FILE_NAME = "file";
+
+	// the vanilla provider is always around so that the login and logout events can be forwarded to it
+	public static final VanillaPresenceProvider VANILLA = new VanillaPresenceProvider();
+
+	private static final Map<String, Supplier<? extends PresenceProvider>> FACTORIES = new HashMap<>();
+
+	private static @Nullable PresenceProvider active = null;
+
+	static
+	{
+		register(VANILLA_NAME, () -> VANILLA);
+		register(FILE_NAME, FilePresenceProvider::new);
+	}
+
+	/**
+	 * Registers a presence provider that server operators can choose with the presence_provider config option.
+	 * Call this during mod construction or setup.
+	 * @param name The name of the provider, namespaced by modid is recommended
+	 * @param factory Creates the provider each time a server starts with it selected
+	 */
+	public static synchronized void register(String name, Supplier<? extends PresenceProvider> factory)
+	{
+		FACTORIES.put(name, factory);
+	}
+
+	public static synchronized void start(MinecraftServer server, OwnedClockoutBlocksData data)
+	{
+		String name = Clockout.config.presence_provider.get();
+		Supplier<? extends PresenceProvider> factory = FACTORIES.get(name);
+		if (factory == null)
+		{
+			Clockout.LOGGER.error("Unknown clockout presence provider {}, using {} instead", name, VANILLA_NAME);
+			factory = FACTORIES.get(VANILLA_NAME);
+		}
+		active = factory.get();
+		active.start(server, data::queuePresenceDelta);
+	}
+
+	public static void tick(MinecraftServer server)
+	{
+		PresenceProvider provider = active;
+		if (provider != null)
+		{
+			provider.tick(server);
+		}
+	}
+
+	public static synchronized void stop(MinecraftServer server)
+	{
+		if (active != null)
+		{
+			active.stop(server);
+			active = null;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package commoble.clockout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+
+/**
+ * A dimension of a running server, as seen by the ownership data
+ */
+public class ServerClockoutWorld implements ClockoutWorld
+{
+	// one adapter per dimension, so that applying changes a section at a time doesn't make a new one for every section
+	// replaced if the dimension's world is, e.g. when another single player world is opened, must only be used on the server thread
+	private static final Map<RegistryKey<World>, ServerClockoutWorld> ADAPTERS = new HashMap<>();
+	
+	private final ServerWorld world;
+	
+	public ServerClockoutWorld(ServerWorld world)
+	{
+		this.world = world;
+	}
+	
+	// returns null if the dimension doesn't exist right now
+	public static @Nullable ServerClockoutWorld get(MinecraftServer server, RegistryKey<World> dimID)
+	{
+		ServerWorld world = server.getWorld(dimID);
+		if (world == null)
+		{
+			return null;
+		}
+		ServerClockoutWorld adapter = ADAPTERS.get(dimID);
+		if (adapter == null || adapter.world != world)
+		{
+			adapter = new ServerClockoutWorld(world);
+			ADAPTERS.put(dimID, adapter);
+		}
+		return adapter;
+	}
+	
+	// forgets the adapters so that they don't keep the server's worlds around after it stops
+	public static void clear()
+	{
+		ADAPTERS.clear();
+	}
+	
+	@Override
+	public RegistryKey<World> getDimensionKey()
+	{
+		return this.world.getDimensionKey();
+	}
+	
+	@Override
+	public boolean isBlockLoaded(long packedPos)
+	{
+		return this.world.isBlockLoaded(BlockPos.fromLong(packedPos));
+	}
+	
+	@Override
+	public BlockPower getBlockPower(long packedPos)
+	{
+		BlockState state = this.world.getBlockState(BlockPos.fromLong(packedPos));
+		return state.getBlock() == ObjectHolders.CLOCKOUT_BLOCK && state.hasProperty(ClockoutBlock.POWERED)
+			? BlockPower.of(state.get(ClockoutBlock.POWERED))
+			: BlockPower.MISSING;
+	}
+	
+	@Override
+	public boolean setBlockPowered(long packedPos, boolean powered)
+	{
+		BlockPos pos = BlockPos.fromLong(packedPos);
+		BlockState state = this.world.getBlockState(pos);
+		if (state.getBlock() != ObjectHolders.CLOCKOUT_BLOCK || !state.hasProperty(ClockoutBlock.POWERED))
+		{
+			return false;
+		}
+		// shape updates still happen so that observers see the change
+		// the emissive property is brought in line with the config while we're already changing the state
+		BlockState newState = state.with(ClockoutBlock.POWERED, powered);
+		if (newState.hasProperty(ClockoutBlock.EMISSIVE))
+		{
+			newState = newState.with(ClockoutBlock.EMISSIVE, Clockout.config.emit_light.get());
+		}
+		return this.world.setBlockState(pos, newState, Constants.BlockFlags.BLOCK_UPDATE);
+	}
+	
+	@Override
+	public void notifyNeighbors(long packedPos)
+	{
+		this.world.notifyNeighborsOfStateChange(BlockPos.fromLong(packedPos), ObjectHolders.CLOCKOUT_BLOCK);
+	}
+}
@@ -0,0 +1,115 @@
+package commoble.clockout;
+
+import java.util.ArrayDeque;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+/**
+ * Walks the ownership index a few positions per tick and removes positions that no longer have a clockout block,
+ * e.g. blocks that were removed by world editors or chunk regeneration without calling onReplaced.
+ * Each dimension is walked a chunk at a time through its chunk index, in chunk key order.
+ * Only positions in loaded chunks are checked; positions in unloaded chunks are checked again on the next pass.
+ * Must be used on the server thread.
+ */
+public class StaleEntrySweeper
+{
+	private static final long[] NO_POSITIONS = new long[0];
+
+	// dimensions left to sweep in the current pass
+	private final Queue<RegistryKey<World>> dimensions = new ArrayDeque<>();
+
+	// where we are in the dimension currently being swept. Chunks are visited in key order, so we can carry on from
+	// the next key however many blocks were placed and removed since the last tick. Only the positions in the chunk
+	// currently being swept are copied, so that removing stale positions doesn't interfere with our place in it
+	private @Nullable RegistryKey<World> currentDimension = null;
+	private long nextChunkKey = Long.MIN_VALUE;
+	private boolean hasMoreChunks = false;
+	private long[] positions = NO_POSITIONS;
+	private int index = 0;
+
+	/**
+	 * Checks up to maxEntries positions, continuing from where the previous call left off.
+	 * When every dimension has been swept, the next pass starts on the next call.
+	 * @param worlds Gets the world of a dimension, or null if it doesn't exist right now
+	 */
+	public void sweep(Function<RegistryKey<World>, ClockoutWorld> worlds, OwnedClockoutBlocksData data, int maxEntries)
+	{
+		int checked = 0;
+		while (checked < maxEntries)
+		{
+			if (this.index >= this.positions.length && !this.nextChunk(data))
+			{
+				return;
+			}
+
+			RegistryKey<World> dimID = this.currentDimension;
+			ClockoutWorld world = worlds.apply(dimID);
+			if (world == null)
+			{
+				// the dimension doesn't exist right now, so there's nothing we can check
+				this.currentDimension = null;
+				this.index = this.positions.length;
+				continue;
+			}
+
+			int end = Math.min(this.positions.length, this.index + maxEntries - checked);
+			for (; this.index < end; this.index++)
+			{
+				long packedPos = this.positions[this.index];
+				if (world.isBlockLoaded(packedPos)
+					&& world.getBlockPower(packedPos) == ClockoutWorld.BlockPower.MISSING
+					&& data.getBlockOwner(dimID, packedPos) != null)
+				{
+					data.removeBlock(dimID, BlockPos.fromLong(packedPos));
+					ClockoutMetrics.STALE_ENTRIES_PRUNED.increment();
+				}
+				checked++;
+			}
+		}
+	}
+
+	// moves on to the next chunk with owned positions, in this dimension or the next ones, returns false if the pass is finished
+	private boolean nextChunk(OwnedClockoutBlocksData data)
+	{
+		this.positions = NO_POSITIONS;
+		this.index = 0;
+		while (this.currentDimension != null || this.nextDimension(data))
+		{
+			OptionalLong chunkKey = this.hasMoreChunks
+				? data.getNextOwnedChunk(this.currentDimension, this.nextChunkKey)
+				: OptionalLong.empty();
+			if (chunkKey.isPresent())
+			{
+				long key = chunkKey.getAsLong();
+				this.positions = data.getOwnedPositionsInChunk(this.currentDimension, key);
+				this.hasMoreChunks = key != Long.MAX_VALUE;
+				this.nextChunkKey = key + 1;
+				return true;
+			}
+			this.currentDimension = null;
+		}
+		return false;
+	}
+
+	// moves on to the next dimension, returns false if the pass is finished
+	private boolean nextDimension(OwnedClockoutBlocksData data)
+	{
+		this.currentDimension = this.dimensions.poll();
+		this.nextChunkKey = Long.MIN_VALUE;
+		this.hasMoreChunks = true;
+		if (this.currentDimension == null)
+		{
+			// start the next pass on the next tick so an empty index doesn't spin
+			this.dimensions.addAll(data.getOwnedDimensions());
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,58 @@
+package commoble.clockout;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * The default presence provider, players are online while they're logged into this server.
+ */
+public class VanillaPresenceProvider implements PresenceProvider
+{
+	// only set while this is the active provider, login events are ignored otherwise
+	private volatile @Nullable Consumer<PresenceDelta> sink = null;
+
+	@Override
+	public void start(MinecraftServer server, Consumer<PresenceDelta> sink)
+	{
+		this.sink = sink;
+		List<UUID> players = server.getPlayerList().getPlayers().stream()
+			.map(player -> player.getGameProfile().getId())
+			.collect(Collectors.toList());
+		if (!players.isEmpty())
+		{
+			sink.accept(PresenceDelta.of(players, Collections.emptyList()));
+		}
+	}
+
+	@Override
+	public void stop(MinecraftServer server)
+	{
+		this.sink = null;
+	}
+
+	public void onPlayerLoggedIn(PlayerEntity player)
+	{
+		Consumer<PresenceDelta> sink = this.sink;
+		if (sink != null)
+		{
+			sink.accept(PresenceDelta.online(player.getGameProfile().getId()));
+		}
+	}
+
+	public void onPlayerLoggedOut(PlayerEntity player)
+	{
+		Consumer<PresenceDelta> sink = this.sink;
+		if (sink != null)
+		{
+			sink.accept(PresenceDelta.offline(player.getGameProfile().getId()));
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package commoble.clockout.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import it.unimi.dsi.fastutil.longs.AbstractLongSet;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
+/**
+ * Immutable set of longs backed by a sorted array, for sets that are read far more often than they're built.
+ * Costs 8 bytes per element instead of a hash set's ~11 bytes plus slack, and looks elements up by binary search.
+ */
+public class SortedLongArraySet extends AbstractLongSet
+{
+	public static final SortedLongArraySet EMPTY = new SortedLongArraySet(new long[0]);
+
+	private final long[] elements;
+
+	private SortedLongArraySet(long[] elements)
+	{
+		this.elements = elements;
+	}
+
+	// the array must not be changed afterward, it's sorted in place and used as it is
+	public static SortedLongArraySet wrap(long[] elements)
+	{
+		if (elements.length == 0)
+		{
+			return EMPTY;
+		}
+		Arrays.sort(elements);
+		return new SortedLongArraySet(elements);
+	}
+
+	@Override
+	public boolean contains(long element)
+	{
+		return Arrays.binarySearch(this.elements, element) >= 0;
+	}
+
+	@Override
+	public int size()
+	{
+		return this.elements.length;
+	}
+
+	@Override
+	public long[] toLongArray()
+	{
+		return this.elements.clone();
+	}
+
+	@Override
+	public LongIterator iterator()
+	{
+		return new LongIterator()
+		{
+			private int index = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return this.index < SortedLongArraySet.this.elements.length;
+			}
+
+			@Override
+			public long nextLong()
+			{
+				if (!this.hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return SortedLongArraySet.this.elements[this.index++];
+			}
+		};
+	}
+
+	@Override
+	public boolean add(long element)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove(long element)
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,280 @@
+package commoble.clockout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.mojang.authlib.GameProfile;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.block.BlockState;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.TickEvent.ServerTickEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
+import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+
+/**
+ * Soak test that measures what login/logout churn costs a running dedicated server.
+ * Only runs in the soakServer run configuration (./gradlew runSoakServer), which is the only one with this source set.
+ * Places clockout blocks for simulated owners across every dimension, then logs random owners in and out
+ * through the ownership data for a while, then saves the world and writes a report and stops the server.
+ * The owners are made-up profiles that never connect, so the test works in offline mode without any clients.
+ *
+ * Parameters are system properties, set from gradle properties by the run configuration:
+ * clockout.soak.owners, clockout.soak.blocks, clockout.soak.ticks, clockout.soak.churn, clockout.soak.seed, clockout.soak.report
+ */
+@Mod.EventBusSubscriber(modid = Clockout.MODID)
+public class ChurnSoakTest
+{
+	// how long to spend placing blocks per tick, so that generating chunks doesn't trip the watchdog
+	public static final long POPULATE_NANOS_PER_TICK = 40_000_000L;
+	// ticks to let the initial placements settle before measuring
+	public static final int WARMUP_TICKS = 200;
+	// blocks are placed within this many chunks of the origin of each dimension
+	public static final int CHUNK_RADIUS = 8;
+	public static final int MIN_Y = 100;
+	public static final int MAX_Y = 120;
+
+	private static @Nullable ChurnSoakTest instance = null;
+
+	private enum Phase
+	{
+		POPULATE,
+		WARMUP,
+		CHURN,
+		DONE
+	}
+
+	private final int ownerCount = Integer.getInteger("clockout.soak.owners", 1000);
+	private final int blockCount = Integer.getInteger("clockout.soak.blocks", 100000);
+	private final int churnTicks = Integer.getInteger("clockout.soak.ticks", 6000);
+	private final int churnPerTick = Integer.getInteger("clockout.soak.churn", 5);
+	private final long seed = Long.getLong("clockout.soak.seed", 0L);
+	private final Path reportPath = Paths.get(System.getProperty("clockout.soak.report", "clockout_soak_report.txt"));
+
+	private final Random random = new Random(this.seed);
+	private final List<UUID> owners = new ArrayList<>();
+	private final Set<UUID> onlineOwners = new HashSet<>();
+	private final List<ServerWorld> worlds = new ArrayList<>();
+	private final Set<BlockPos> usedPositions = new HashSet<>();
+	private final LongArrayList tickNanos = new LongArrayList();
+
+	private Phase phase = Phase.POPULATE;
+	private int blocksPlaced = 0;
+	private int phaseTicks = 0;
+	private long tickStart = 0L;
+	private long populateStart = 0L;
+	private long populateNanos = 0L;
+	private long chunkLoadsBefore = 0L;
+	private long deferredBefore = 0L;
+	private long flippedBefore = 0L;
+
+	private ChurnSoakTest(MinecraftServer server)
+	{
+		server.getWorlds().forEach(this.worlds::add);
+		for (int i=0; i<this.ownerCount; i++)
+		{
+			// made-up profiles, added to the profile cache so owner names can be shown without looking them up
+			GameProfile profile = new GameProfile(new UUID(this.random.nextLong(), this.random.nextLong()), "soak_" + i);
+			server.getPlayerProfileCache().addEntry(profile);
+			this.owners.add(profile.getId());
+		}
+		this.populateStart = System.nanoTime();
+	}
+
+	@SubscribeEvent
+	public static void onServerStarted(FMLServerStartedEvent event)
+	{
+		if (event.getServer().isDedicatedServer())
+		{
+			instance = new ChurnSoakTest(event.getServer());
+			Clockout.LOGGER.info("Starting clockout soak test");
+		}
+	}
+
+	@SubscribeEvent
+	public static void onServerStopped(FMLServerStoppedEvent event)
+	{
+		instance = null;
+	}
+
+	// measure from before anything else runs in the tick to after everything else has, including clockout's own tick
+	@SubscribeEvent(priority = EventPriority.HIGHEST)
+	public static void onServerTickStart(ServerTickEvent event)
+	{
+		if (event.phase == TickEvent.Phase.START && instance != null)
+		{
+			instance.tickStart = System.nanoTime();
+		}
+	}
+
+	@SubscribeEvent(priority = EventPriority.LOWEST)
+	public static void onServerTickEnd(ServerTickEvent event)
+	{
+		ChurnSoakTest test = instance;
+		if (event.phase == TickEvent.Phase.END && test != null && test.tickStart != 0L)
+		{
+			test.tick(ServerLifecycleHooks.getCurrentServer());
+		}
+	}
+
+	private void tick(MinecraftServer server)
+	{
+		this.phaseTicks++;
+		switch(this.phase)
+		{
+			case POPULATE:
+				this.populate(server);
+				break;
+			case WARMUP:
+				if (this.phaseTicks >= WARMUP_TICKS)
+				{
+					this.startPhase(Phase.CHURN);
+					this.chunkLoadsBefore = ClockoutMetrics.CHUNK_LOADS_TRIGGERED.sum();
+					this.deferredBefore = ClockoutMetrics.UPDATES_DEFERRED.sum();
+					this.flippedBefore = ClockoutMetrics.BLOCKS_FLIPPED.sum();
+				}
+				break;
+			case CHURN:
+				// this tick's churn is queued now and applied on the next tick, whose time is recorded here next time
+				this.tickNanos.add(System.nanoTime() - this.tickStart);
+				this.churn(server);
+				if (this.phaseTicks >= this.churnTicks)
+				{
+					this.finish(server);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void startPhase(Phase phase)
+	{
+		Clockout.LOGGER.info("Clockout soak test: {} done after {} ticks, starting {}", this.phase, this.phaseTicks, phase);
+		this.phase = phase;
+		this.phaseTicks = 0;
+	}
+
+	private void populate(MinecraftServer server)
+	{
+		OwnedClockoutBlocksData data = OwnedClockoutBlocksData.get(server.getWorld(World.OVERWORLD));
+		BlockState state = ObjectHolders.CLOCKOUT_BLOCK.getDefaultState();
+		long start = System.nanoTime();
+		while (this.blocksPlaced < this.blockCount && System.nanoTime() - start < POPULATE_NANOS_PER_TICK)
+		{
+			ServerWorld world = this.worlds.get(this.blocksPlaced % this.worlds.size());
+			BlockPos pos = this.randomPos();
+			if (this.usedPositions.add(pos))
+			{
+				world.setBlockState(pos, state, Constants.BlockFlags.BLOCK_UPDATE);
+				data.putBlock(this.owners.get(this.blocksPlaced % this.owners.size()), world, pos);
+				this.blocksPlaced++;
+			}
+		}
+		if (this.blocksPlaced >= this.blockCount)
+		{
+			this.populateNanos = System.nanoTime() - this.populateStart;
+			this.usedPositions.clear();
+			this.startPhase(Phase.WARMUP);
+		}
+	}
+
+	private BlockPos randomPos()
+	{
+		int range = (CHUNK_RADIUS * 2 + 1) * 16;
+		int offset = CHUNK_RADIUS * 16;
+		return new BlockPos(this.random.nextInt(range) - offset, MIN_Y + this.random.nextInt(MAX_Y - MIN_Y + 1), this.random.nextInt(range) - offset);
+	}
+
+	// flips random owners between online and offline
+	private void churn(MinecraftServer server)
+	{
+		OwnedClockoutBlocksData data = OwnedClockoutBlocksData.get(server.getWorld(World.OVERWORLD));
+		List<UUID> online = new ArrayList<>();
+		List<UUID> offline = new ArrayList<>();
+		for (int i=0; i<this.churnPerTick; i++)
+		{
+			UUID owner = this.owners.get(this.random.nextInt(this.owners.size()));
+			if (this.onlineOwners.remove(owner))
+			{
+				offline.add(owner);
+			}
+			else
+			{
+				this.onlineOwners.add(owner);
+				online.add(owner);
+			}
+		}
+		data.queuePresenceDelta(PresenceDelta.of(online, offline));
+	}
+
+	private void finish(MinecraftServer server)
+	{
+		this.phase = Phase.DONE;
+		OwnedClockoutBlocksData data = OwnedClockoutBlocksData.get(server.getWorld(World.OVERWORLD));
+		long saveStart = System.nanoTime();
+		server.save(true, true, true);
+		long saveNanos = System.nanoTime() - saveStart;
+
+		long[] sorted = this.tickNanos.toLongArray();
+		Arrays.sort(sorted);
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format("Clockout soak test: %d owners, %d blocks in %d dimensions, %d ticks of churn, %d login state changes per tick, seed %d",
+			this.ownerCount, this.blockCount, this.worlds.size(), this.churnTicks, this.churnPerTick, this.seed));
+		lines.add(String.format("Populate: %.1f s", this.populateNanos / 1e9));
+		lines.add(String.format("MSPT: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+			percentileMillis(sorted, 0.5), percentileMillis(sorted, 0.9), percentileMillis(sorted, 0.99), percentileMillis(sorted, 0.999), percentileMillis(sorted, 1.0)));
+		lines.add(String.format("During churn: %d blocks flipped, %d chunk loads triggered, %d updates deferred",
+			ClockoutMetrics.BLOCKS_FLIPPED.sum() - this.flippedBefore,
+			ClockoutMetrics.CHUNK_LOADS_TRIGGERED.sum() - this.chunkLoadsBefore,
+			ClockoutMetrics.UPDATES_DEFERRED.sum() - this.deferredBefore));
+		lines.add(String.format("World save: %.1f ms (clockout data saving in the %s)",
+			saveNanos / 1e6, Clockout.config.background_saving.get() ? "background" : "foreground"));
+		BackgroundSaver.awaitPendingSaves(Clockout.config.background_save_shutdown_timeout.get(), TimeUnit.SECONDS);
+		lines.addAll(ClockoutMetrics.describe(data));
+
+		try
+		{
+			Files.write(this.reportPath, lines, StandardCharsets.UTF_8);
+			Clockout.LOGGER.info("Clockout soak test report written to {}", this.reportPath.toAbsolutePath());
+		}
+		catch(IOException e)
+		{
+			Clockout.LOGGER.error("Failed to write clockout soak test report", e);
+		}
+		lines.forEach(Clockout.LOGGER::info);
+		server.initiateShutdown(false);
+	}
+
+	private static double percentileMillis(long[] sorted, double percentile)
+	{
+		if (sorted.length == 0)
+		{
+			return 0D;
+		}
+		int index = Math.min(sorted.length - 1, (int)Math.ceil(percentile * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+}
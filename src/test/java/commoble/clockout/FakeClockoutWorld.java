@@ -0,0 +1,95 @@
+package commoble.clockout;
+
+import it.unimi.dsi.fastutil.longs.Long2BooleanMap;
+import it.unimi.dsi.fastutil.longs.Long2BooleanOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+/**
+ * Stands in for a dimension of a running server, so that the ownership data can power clockout blocks without one.
+ * Keeps the power state of each clockout block in a map and counts the changes made to it.
+ * Every chunk is loaded unless it's been unloaded with unloadChunk.
+ */
+public class FakeClockoutWorld implements ClockoutWorld
+{
+	private final RegistryKey<World> dimID;
+	// packed positions of the clockout blocks in the world to whether they're powered
+	private final Long2BooleanMap blocks = new Long2BooleanOpenHashMap();
+	private final LongSet unloadedChunks = new LongOpenHashSet();
+	private long changes = 0;
+	private long notifications = 0;
+	
+	public FakeClockoutWorld(RegistryKey<World> dimID)
+	{
+		this.dimID = dimID;
+	}
+	
+	public void placeBlock(long packedPos, boolean powered)
+	{
+		this.blocks.put(packedPos, powered);
+	}
+	
+	public void removeBlock(long packedPos)
+	{
+		this.blocks.remove(packedPos);
+	}
+	
+	public void unloadChunk(ChunkPos chunkPos)
+	{
+		this.unloadedChunks.add(chunkPos.asLong());
+	}
+	
+	public void loadChunk(ChunkPos chunkPos)
+	{
+		this.unloadedChunks.remove(chunkPos.asLong());
+	}
+	
+	public long getChanges()
+	{
+		return this.changes;
+	}
+	
+	public long getNotifications()
+	{
+		return this.notifications;
+	}
+	
+	@Override
+	public RegistryKey<World> getDimensionKey()
+	{
+		return this.dimID;
+	}
+	
+	@Override
+	public boolean isBlockLoaded(long packedPos)
+	{
+		return !this.unloadedChunks.contains(ChunkPos.asLong(BlockPos.unpackX(packedPos) >> 4, BlockPos.unpackZ(packedPos) >> 4));
+	}
+	
+	@Override
+	public BlockPower getBlockPower(long packedPos)
+	{
+		return this.blocks.containsKey(packedPos) ? BlockPower.of(this.blocks.get(packedPos)) : BlockPower.MISSING;
+	}
+	
+	@Override
+	public boolean setBlockPowered(long packedPos, boolean powered)
+	{
+		if (!this.blocks.containsKey(packedPos) || this.blocks.put(packedPos, powered) == powered)
+		{
+			return false;
+		}
+		this.changes++;
+		return true;
+	}
+	
+	@Override
+	public void notifyNeighbors(long packedPos)
+	{
+		this.notifications++;
+	}
+}
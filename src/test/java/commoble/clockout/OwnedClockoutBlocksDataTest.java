@@ -0,0 +1,222 @@
+package commoble.clockout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+
+/**
+ * Checks that the ownership data powers the right blocks through fake worlds, with every storage engine
+ */
+public class OwnedClockoutBlocksDataTest
+{
+	private static final UUID FIRST_OWNER = new UUID(0L, 1L);
+	private static final UUID SECOND_OWNER = new UUID(0L, 2L);
+	private static final BlockPos FIRST_POS = new BlockPos(0, 64, 0);
+	private static final BlockPos SECOND_POS = new BlockPos(100, 64, -100);
+	private static final BlockPos THIRD_POS = new BlockPos(-2000, 10, 3000);
+
+	private static RegistryKey<World> firstDimension;
+	private static RegistryKey<World> secondDimension;
+
+	private final Map<RegistryKey<World>, FakeClockoutWorld> worlds = new HashMap<>();
+
+	@BeforeAll
+	public static void bootstrap()
+	{
+		Bootstrap.register();
+		firstDimension = RegistryKey.getOrCreateKey(Registry.WORLD_KEY, new ResourceLocation(Clockout.MODID, "test_0"));
+		secondDimension = RegistryKey.getOrCreateKey(Registry.WORLD_KEY, new ResourceLocation(Clockout.MODID, "test_1"));
+	}
+
+	private OwnedClockoutBlocksData createData(String engine)
+	{
+		OwnedClockoutBlocksData data = new OwnedClockoutBlocksData();
+		data.setStorageEngine(engine);
+		return data;
+	}
+
+	// places an unpowered clockout block in the fake world and gives it to the owner
+	private void placeBlock(OwnedClockoutBlocksData data, UUID ownerID, RegistryKey<World> dimID, BlockPos pos)
+	{
+		this.worlds.computeIfAbsent(dimID, FakeClockoutWorld::new).placeBlock(pos.toLong(), false);
+		data.putBlock(ownerID, dimID, pos);
+	}
+
+	private void setOnline(OwnedClockoutBlocksData data, UUID playerID, boolean online)
+	{
+		data.onPlayerLoginStateChange(playerID, online);
+		this.applyPowerChanges(data);
+	}
+
+	private void applyPowerChanges(OwnedClockoutBlocksData data)
+	{
+		data.applyPowerChanges(this.worlds::get, 0, 0, false);
+	}
+
+	private void assertPower(ClockoutWorld.BlockPower expectedPower, RegistryKey<World> dimID, BlockPos pos)
+	{
+		assertEquals(expectedPower, this.worlds.get(dimID).getBlockPower(pos.toLong()));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void loginAndLogoutFanOut(String engine)
+	{
+		OwnedClockoutBlocksData data = this.createData(engine);
+		this.placeBlock(data, FIRST_OWNER, firstDimension, FIRST_POS);
+		this.placeBlock(data, FIRST_OWNER, secondDimension, SECOND_POS);
+		this.placeBlock(data, SECOND_OWNER, firstDimension, THIRD_POS);
+
+		this.setOnline(data, FIRST_OWNER, true);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, firstDimension, FIRST_POS);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, secondDimension, SECOND_POS);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, firstDimension, THIRD_POS);
+
+		this.setOnline(data, FIRST_OWNER, false);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, firstDimension, FIRST_POS);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, secondDimension, SECOND_POS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void removedBlocksAreLeftAlone(String engine)
+	{
+		OwnedClockoutBlocksData data = this.createData(engine);
+		this.placeBlock(data, FIRST_OWNER, firstDimension, FIRST_POS);
+		this.placeBlock(data, FIRST_OWNER, firstDimension, SECOND_POS);
+		data.removeBlock(firstDimension, FIRST_POS);
+		assertNull(data.getBlockOwner(firstDimension, FIRST_POS.toLong()));
+		assertEquals(1, data.getOwnedBlockCount(FIRST_OWNER));
+
+		this.setOnline(data, FIRST_OWNER, true);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, firstDimension, FIRST_POS);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, firstDimension, SECOND_POS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void transferToOnlineOwnerPowersBlocks(String engine)
+	{
+		OwnedClockoutBlocksData data = this.createData(engine);
+		this.placeBlock(data, FIRST_OWNER, firstDimension, FIRST_POS);
+		this.placeBlock(data, FIRST_OWNER, secondDimension, SECOND_POS);
+		this.placeBlock(data, SECOND_OWNER, firstDimension, THIRD_POS);
+		this.setOnline(data, SECOND_OWNER, true);
+
+		assertEquals(2, data.apply(new OwnershipBatch().transferAll(FIRST_OWNER, SECOND_OWNER)));
+		this.applyPowerChanges(data);
+		assertEquals(SECOND_OWNER, data.getBlockOwner(firstDimension, FIRST_POS.toLong()));
+		assertEquals(SECOND_OWNER, data.getBlockOwner(secondDimension, SECOND_POS.toLong()));
+		assertEquals(0, data.getOwnedBlockCount(FIRST_OWNER));
+		assertEquals(3, data.getOwnedBlockCount(SECOND_OWNER));
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, firstDimension, FIRST_POS);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, secondDimension, SECOND_POS);
+
+		this.setOnline(data, SECOND_OWNER, false);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, firstDimension, FIRST_POS);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, secondDimension, SECOND_POS);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, firstDimension, THIRD_POS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void batchPutToOnlineOwnerPowersBlocks(String engine)
+	{
+		OwnedClockoutBlocksData data = this.createData(engine);
+		this.setOnline(data, FIRST_OWNER, true);
+		this.worlds.computeIfAbsent(firstDimension, FakeClockoutWorld::new).placeBlock(FIRST_POS.toLong(), false);
+
+		assertEquals(1, data.apply(new OwnershipBatch().put(FIRST_OWNER, firstDimension, FIRST_POS)));
+		this.applyPowerChanges(data);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, firstDimension, FIRST_POS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void writeAndReadRoundTrip(String engine)
+	{
+		// writes through CompactOwnershipFormat
+		OwnedClockoutBlocksData data = this.createData(engine);
+		this.placeBlock(data, FIRST_OWNER, firstDimension, FIRST_POS);
+		this.placeBlock(data, FIRST_OWNER, secondDimension, SECOND_POS);
+		this.placeBlock(data, SECOND_OWNER, firstDimension, THIRD_POS);
+		CompoundNBT nbt = data.write(new CompoundNBT());
+
+		OwnedClockoutBlocksData readData = this.createData(engine);
+		readData.read(nbt);
+		assertEquals(3, readData.getBlockCount());
+		assertEquals(data.getOwnedBlockCounts(), readData.getOwnedBlockCounts());
+		assertEquals(FIRST_OWNER, readData.getBlockOwner(firstDimension, FIRST_POS.toLong()));
+		assertEquals(FIRST_OWNER, readData.getBlockOwner(secondDimension, SECOND_POS.toLong()));
+		assertEquals(SECOND_OWNER, readData.getBlockOwner(firstDimension, THIRD_POS.toLong()));
+
+		this.setOnline(readData, FIRST_OWNER, true);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, firstDimension, FIRST_POS);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, secondDimension, SECOND_POS);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, firstDimension, THIRD_POS);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void recordedPowerStatesSurviveWriteAndRead(String engine)
+	{
+		OwnedClockoutBlocksData data = this.createData(engine);
+		this.placeBlock(data, FIRST_OWNER, firstDimension, FIRST_POS);
+		this.placeBlock(data, SECOND_OWNER, firstDimension, SECOND_POS);
+		this.setOnline(data, FIRST_OWNER, true);
+		CompoundNBT nbt = data.write(new CompoundNBT());
+
+		// blocks recorded in the state their owner is changing to are skipped, even where the world disagrees
+		OwnedClockoutBlocksData readData = this.createData(engine);
+		readData.read(nbt);
+		this.worlds.get(firstDimension).placeBlock(FIRST_POS.toLong(), false);
+		this.setOnline(readData, FIRST_OWNER, true);
+		this.assertPower(ClockoutWorld.BlockPower.UNPOWERED, firstDimension, FIRST_POS);
+
+		this.setOnline(readData, SECOND_OWNER, true);
+		this.assertPower(ClockoutWorld.BlockPower.POWERED, firstDimension, SECOND_POS);
+	}
+
+	@Test
+	public void failedSaveIsSavedAgain(@TempDir Path directory) throws IOException
+	{
+		OwnedClockoutBlocksData data = this.createData(OwnershipStorageEngines.HASH_NAME);
+		this.placeBlock(data, FIRST_OWNER, firstDimension, FIRST_POS);
+		assertTrue(data.isDirty());
+
+		// a regular file where the data directory should be makes every write fail
+		Path dataDirectory = Files.createFile(directory.resolve("data"));
+		File file = dataDirectory.resolve("clockout.dat").toFile();
+		data.save(file, false);
+		assertTrue(data.isDirty());
+
+		Files.delete(dataDirectory);
+		data.save(file, false);
+		assertFalse(data.isDirty());
+		assertTrue(file.exists());
+		assertTrue(Files.exists(OwnedClockoutBlocksData.getDimensionFile(dataDirectory, firstDimension)));
+	}
+}
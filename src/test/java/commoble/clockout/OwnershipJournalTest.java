@@ -0,0 +1,126 @@
+package commoble.clockout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+
+/**
+ * Checks that journals survive being cut off or corrupted partway through a record
+ */
+public class OwnershipJournalTest
+{
+	private static final UUID OWNER = new UUID(0L, 1L);
+
+	private static RegistryKey<World> dimension;
+
+	@BeforeAll
+	public static void bootstrap()
+	{
+		Bootstrap.register();
+		dimension = RegistryKey.getOrCreateKey(Registry.WORLD_KEY, new ResourceLocation(Clockout.MODID, "test_0"));
+	}
+
+	// records the replayed positions, removals as negative positions
+	private static List<Long> replay(Path directory, long fromGeneration) throws IOException
+	{
+		List<Long> replayed = new ArrayList<>();
+		OwnershipJournal.replay(directory, fromGeneration, new OwnershipJournal.Visitor()
+		{
+			@Override
+			public void onPut(UUID playerID, RegistryKey<World> dimID, long packedPos)
+			{
+				replayed.add(packedPos);
+			}
+
+			@Override
+			public void onRemove(RegistryKey<World> dimID, long packedPos)
+			{
+				replayed.add(-packedPos);
+			}
+		});
+		return replayed;
+	}
+
+	private static void append(Path directory, long generation, byte... bytes) throws IOException
+	{
+		Files.write(OwnershipJournal.getFile(directory, generation), bytes, StandardOpenOption.APPEND);
+	}
+
+	@Test
+	public void truncatedRecordIsIgnored(@TempDir Path directory) throws IOException
+	{
+		try (OwnershipJournal journal = OwnershipJournal.open(directory, 0L))
+		{
+			journal.appendPut(OWNER, dimension, 1L);
+			journal.appendRemove(dimension, 2L);
+		}
+		// the first bytes of another put, as if the server crashed while writing it
+		append(directory, 0L, OwnershipJournal.PUT, (byte)0, (byte)0);
+		try (OwnershipJournal journal = OwnershipJournal.open(directory, 1L))
+		{
+			journal.appendPut(OWNER, dimension, 3L);
+		}
+		assertEquals(Arrays.asList(1L, -2L, 3L), replay(directory, 0L));
+	}
+
+	@Test
+	public void corruptDimensionEndsTheJournal(@TempDir Path directory) throws IOException
+	{
+		try (OwnershipJournal journal = OwnershipJournal.open(directory, 0L))
+		{
+			journal.appendPut(OWNER, dimension, 1L);
+		}
+		try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(OwnershipJournal.getFile(directory, 0L), StandardOpenOption.APPEND)))
+		{
+			output.writeByte(OwnershipJournal.REMOVE);
+			output.writeUTF("Not A Valid:Dimension");
+			output.writeLong(2L);
+		}
+		try (OwnershipJournal journal = OwnershipJournal.open(directory, 1L))
+		{
+			journal.appendRemove(dimension, 3L);
+		}
+		assertEquals(Arrays.asList(1L, -3L), replay(directory, 0L));
+	}
+
+	@Test
+	public void unknownRecordTypeEndsTheJournal(@TempDir Path directory) throws IOException
+	{
+		try (OwnershipJournal journal = OwnershipJournal.open(directory, 0L))
+		{
+			journal.appendPut(OWNER, dimension, 1L);
+		}
+		append(directory, 0L, (byte)99, (byte)1, (byte)2);
+		try (OwnershipJournal journal = OwnershipJournal.open(directory, 1L))
+		{
+			journal.appendPut(OWNER, dimension, 4L);
+		}
+		assertEquals(Arrays.asList(1L, 4L), replay(directory, 0L));
+	}
+
+	@Test
+	public void existingJournalIsNeverReopened(@TempDir Path directory) throws IOException
+	{
+		OwnershipJournal.open(directory, 0L).close();
+		assertThrows(IOException.class, () -> OwnershipJournal.open(directory, 0L));
+	}
+}
@@ -0,0 +1,212 @@
+package commoble.clockout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.nbt.CompoundNBT;
+
+/**
+ * Runs the same checks against every storage engine, so that the engines can be swapped without changing behavior
+ */
+public class OwnershipStorageTest
+{
+	private static final UUID FIRST_OWNER = new UUID(0L, 1L);
+	private static final UUID SECOND_OWNER = new UUID(0L, 2L);
+	private static final UUID THIRD_OWNER = new UUID(0L, 3L);
+
+	private static OwnershipStorage create(String engine)
+	{
+		return OwnershipStorageEngines.get(engine).get();
+	}
+
+	private static LongSet positions(long... packedPositions)
+	{
+		return new LongOpenHashSet(packedPositions);
+	}
+
+	// checks both directions of the index, and the counts, against the positions each owner should have
+	private static void assertOwns(OwnershipStorage storage, UUID ownerID, long... packedPositions)
+	{
+		assertEquals(positions(packedPositions), new LongOpenHashSet(storage.getPositions(ownerID)));
+		assertEquals(packedPositions.length, storage.getBlockCount(ownerID));
+		assertEquals(packedPositions.length > 0, storage.getOwners().contains(ownerID));
+		for (long packedPos : packedPositions)
+		{
+			assertEquals(ownerID, storage.getOwner(packedPos));
+			assertTrue(storage.getPositions(ownerID).contains(packedPos));
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void putGivesPositionsToOwner(String engine)
+	{
+		OwnershipStorage storage = create(engine);
+		assertNull(storage.put(FIRST_OWNER, 10L));
+		assertNull(storage.put(FIRST_OWNER, 11L));
+		assertEquals(FIRST_OWNER, storage.put(FIRST_OWNER, 11L));
+		assertOwns(storage, FIRST_OWNER, 10L, 11L);
+		assertEquals(2, storage.getBlockCount());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void putTakesPositionFromPreviousOwner(String engine)
+	{
+		OwnershipStorage storage = create(engine);
+		storage.put(FIRST_OWNER, 10L);
+		storage.put(FIRST_OWNER, 11L);
+		assertEquals(FIRST_OWNER, storage.put(SECOND_OWNER, 10L));
+		assertOwns(storage, FIRST_OWNER, 11L);
+		assertOwns(storage, SECOND_OWNER, 10L);
+		assertEquals(FIRST_OWNER, storage.put(SECOND_OWNER, 11L));
+		assertOwns(storage, FIRST_OWNER);
+		assertOwns(storage, SECOND_OWNER, 10L, 11L);
+		assertEquals(2, storage.getBlockCount());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void removeTakesPositionAway(String engine)
+	{
+		OwnershipStorage storage = create(engine);
+		storage.put(FIRST_OWNER, 10L);
+		storage.put(FIRST_OWNER, 11L);
+		assertEquals(FIRST_OWNER, storage.remove(10L));
+		assertNull(storage.remove(10L));
+		assertNull(storage.getOwner(10L));
+		assertOwns(storage, FIRST_OWNER, 11L);
+		assertEquals(FIRST_OWNER, storage.remove(11L));
+		assertOwns(storage, FIRST_OWNER);
+		assertEquals(0, storage.getBlockCount());
+		assertTrue(storage.getOwners().isEmpty());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void removeKeepsOtherPositionsFindable(String engine)
+	{
+		// the dense engine fills the removed position's slot with the owner's last position
+		OwnershipStorage storage = create(engine);
+		for (long packedPos=0; packedPos<5; packedPos++)
+		{
+			storage.put(FIRST_OWNER, packedPos);
+		}
+		storage.remove(1L);
+		assertOwns(storage, FIRST_OWNER, 0L, 2L, 3L, 4L);
+		storage.remove(0L);
+		assertOwns(storage, FIRST_OWNER, 2L, 3L, 4L);
+		storage.remove(4L);
+		assertOwns(storage, FIRST_OWNER, 2L, 3L);
+		assertEquals(FIRST_OWNER, storage.put(SECOND_OWNER, 3L));
+		assertOwns(storage, FIRST_OWNER, 2L);
+		assertOwns(storage, SECOND_OWNER, 3L);
+		storage.put(FIRST_OWNER, 5L);
+		storage.remove(2L);
+		assertOwns(storage, FIRST_OWNER, 5L);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void transferToNewOwner(String engine)
+	{
+		OwnershipStorage storage = create(engine);
+		storage.put(FIRST_OWNER, 10L);
+		storage.put(FIRST_OWNER, 11L);
+		storage.put(SECOND_OWNER, 12L);
+		assertEquals(positions(10L, 11L), new LongOpenHashSet(storage.transfer(FIRST_OWNER, THIRD_OWNER)));
+		assertOwns(storage, FIRST_OWNER);
+		assertOwns(storage, SECOND_OWNER, 12L);
+		assertOwns(storage, THIRD_OWNER, 10L, 11L);
+		assertEquals(3, storage.getBlockCount());
+		// the new owner's positions have to keep working after the transfer
+		storage.remove(10L);
+		storage.put(THIRD_OWNER, 13L);
+		assertOwns(storage, THIRD_OWNER, 11L, 13L);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void transferToExistingOwner(String engine)
+	{
+		OwnershipStorage storage = create(engine);
+		storage.put(FIRST_OWNER, 10L);
+		storage.put(FIRST_OWNER, 11L);
+		storage.put(SECOND_OWNER, 12L);
+		assertEquals(positions(10L, 11L), new LongOpenHashSet(storage.transfer(FIRST_OWNER, SECOND_OWNER)));
+		assertOwns(storage, FIRST_OWNER);
+		assertOwns(storage, SECOND_OWNER, 10L, 11L, 12L);
+		storage.remove(10L);
+		assertOwns(storage, SECOND_OWNER, 11L, 12L);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void transferWithoutPositionsDoesNothing(String engine)
+	{
+		OwnershipStorage storage = create(engine);
+		storage.put(FIRST_OWNER, 10L);
+		assertTrue(storage.transfer(SECOND_OWNER, FIRST_OWNER).isEmpty());
+		assertTrue(storage.transfer(FIRST_OWNER, FIRST_OWNER).isEmpty());
+		assertOwns(storage, FIRST_OWNER, 10L);
+		assertOwns(storage, SECOND_OWNER);
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void ownersCanComeAndGo(String engine)
+	{
+		// the dense engine reuses the numbers of owners that have no positions left
+		OwnershipStorage storage = create(engine);
+		storage.put(FIRST_OWNER, 10L);
+		storage.put(SECOND_OWNER, 11L);
+		storage.remove(10L);
+		storage.put(THIRD_OWNER, 12L);
+		storage.put(THIRD_OWNER, 13L);
+		assertOwns(storage, FIRST_OWNER);
+		assertOwns(storage, SECOND_OWNER, 11L);
+		assertOwns(storage, THIRD_OWNER, 12L, 13L);
+		storage.transfer(SECOND_OWNER, THIRD_OWNER);
+		storage.put(FIRST_OWNER, 14L);
+		storage.put(SECOND_OWNER, 15L);
+		assertOwns(storage, FIRST_OWNER, 14L);
+		assertOwns(storage, SECOND_OWNER, 15L);
+		assertOwns(storage, THIRD_OWNER, 11L, 12L, 13L);
+		assertEquals(new HashSet<>(Arrays.asList(FIRST_OWNER, SECOND_OWNER, THIRD_OWNER)), storage.getOwners());
+		assertEquals(5, storage.getBlockCount());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+	public void writeAndReadRoundTrip(String engine)
+	{
+		OwnershipStorage storage = create(engine);
+		storage.put(FIRST_OWNER, 10L);
+		storage.put(FIRST_OWNER, -11L);
+		storage.put(SECOND_OWNER, Long.MAX_VALUE);
+		storage.put(SECOND_OWNER, 13L);
+		storage.remove(13L);
+		CompoundNBT nbt = storage.write(new CompoundNBT());
+		// what one engine writes can be read by every engine
+		for (String otherEngine : new String[] {OwnershipStorageEngines.HASH_NAME, OwnershipStorageEngines.DENSE_NAME})
+		{
+			OwnershipStorage readStorage = create(otherEngine);
+			readStorage.read(nbt);
+			assertOwns(readStorage, FIRST_OWNER, 10L, -11L);
+			assertOwns(readStorage, SECOND_OWNER, Long.MAX_VALUE);
+			assertFalse(readStorage.getOwners().contains(THIRD_OWNER));
+			assertEquals(3, readStorage.getBlockCount());
+		}
+	}
+}